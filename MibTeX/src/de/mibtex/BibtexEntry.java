@@ -7,6 +7,7 @@
 package de.mibtex;
 
 import de.mibtex.citationservice.CitationEntry;
+import de.mibtex.citationservice.CitationHistory;
 import org.jbibtex.BibTeXEntry;
 import org.jbibtex.Key;
 import org.jbibtex.Value;
@@ -50,6 +51,7 @@ public class BibtexEntry {
 
 	public int citations = CitationEntry.NOT_IN_CITATION_SERVICE;
 	public long lastUpdate = 0;
+	public CitationHistory.Trend citationTrend = null;
 	
 	static {
 		MONTH_NAME_TO_NUMBER = new HashMap<>();
@@ -101,11 +103,27 @@ public class BibtexEntry {
 	}
 
 	public String getCitationsPerYear() {
+		if (!hasCitationsPerYear())
+			return citations + "";
+		return getCitationsPerYearValue() + " (" + citations + ")";
+	}
+
+	/**
+	 * Returns the average number of citations per year as displayed by
+	 * {@link #getCitationsPerYear()}, or the total number of citations (or the
+	 * error code) if no average can be computed yet.
+	 */
+	public int getCitationsPerYearValue() {
+		if (!hasCitationsPerYear())
+			return citations;
+		double totalYears = Calendar.getInstance().get(Calendar.YEAR) - year;
+		return (int) (citations / totalYears + 0.5);
+	}
+
+	private boolean hasCitationsPerYear() {
 		int currentYear = Calendar.getInstance().get(Calendar.YEAR);
 		double totalYears = currentYear - year;
-		if (citations <= 0 || year <= 0 || totalYears < 2)
-			return citations + "";
-		return (int) (citations / totalYears + 0.5) + " (" + citations + ")";
+		return !(citations <= 0 || year <= 0 || totalYears < 2);
 	}
 
 	private String getYearPath() {
@@ -387,6 +405,65 @@ public class BibtexEntry {
 		return s;
 	}
 
+	/**
+	 * Reverts the HTML entities introduced by {@link #replaceUmlauts(String)},
+	 * e.g., for exports that are not HTML themselves.
+	 */
+	public static String toPlainText(String s) {
+		if (s.indexOf('&') < 0)
+			return s;
+		StringBuilder text = new StringBuilder(s.length());
+		int i = 0;
+		while (i < s.length()) {
+			char c = s.charAt(i);
+			int end = c == '&' ? s.indexOf(';', i) : -1;
+			String decoded = end > i ? decodeEntity(s.substring(i + 1, end)) : null;
+			if (decoded == null) {
+				text.append(c);
+				i++;
+			} else {
+				text.append(decoded);
+				i = end + 1;
+			}
+		}
+		return text.toString();
+	}
+
+	private static String decodeEntity(String entity) {
+		switch (entity) {
+		case "auml":
+			return "\u00e4";
+		case "ouml":
+			return "\u00f6";
+		case "uuml":
+			return "\u00fc";
+		case "Auml":
+			return "\u00c4";
+		case "Ouml":
+			return "\u00d6";
+		case "Uuml":
+			return "\u00dc";
+		case "szlig":
+			return "\u00df";
+		case "amp":
+			return "&";
+		case "lt":
+			return "<";
+		case "gt":
+			return ">";
+		case "quot":
+			return "\"";
+		default:
+			if (entity.startsWith("#")) {
+				try {
+					return new String(Character.toChars(Integer.parseInt(entity.substring(1))));
+				} catch (IllegalArgumentException e) {
+				}
+			}
+			return null;
+		}
+	}
+
 	public static String toURL(String s) {
 		return toURL(s, new HashMap<>());
 	}
@@ -52,6 +52,21 @@ public class BibtexViewer {
 
     public static String CITATION_DIR;
 
+    public static int CITATION_TREND_MONTHS = 12;
+
+    public static String BUNDLE_FORMAT = "";
+
+    public static boolean HTML_SHARDS = false;
+
+    public static boolean JSONL_CHANGED_ONLY = false;
+
+    public static List<String> CSV_COLUMNS = new ArrayList<String>(
+            Arrays.asList("key", "author", "title", "venue", "year", "citations", "tags"));
+
+    public static String CSV_SEPARATOR = ";";
+
+    public static boolean CSV_HEADER = false;
+
     /**
      * @param args array containing path to ini file
      */
@@ -99,6 +114,33 @@ public class BibtexViewer {
             CITATION_DIR = citationDir;
         }
         format = ini.get("out-format");
+        String bundleFormat = ini.get("out-bundle");
+        if (bundleFormat != null) {
+            BUNDLE_FORMAT = bundleFormat;
+        }
+        try {
+        	HTML_SHARDS = Ini.parseBool(ini.get("html-shards"));
+        } catch (Exception e) {}
+        try {
+        	JSONL_CHANGED_ONLY = Ini.parseBool(ini.get("jsonl-changed-only"));
+        } catch (Exception e) {}
+        String csvColumns = ini.get("csv-columns");
+        if (csvColumns != null && !csvColumns.isBlank()) {
+            CSV_COLUMNS.clear();
+            for (String column : csvColumns.split(",")) {
+                CSV_COLUMNS.add(column.trim());
+            }
+        }
+        String csvSeparator = ini.get("csv-separator");
+        if (csvSeparator != null && !csvSeparator.isEmpty()) {
+            CSV_SEPARATOR = csvSeparator;
+        }
+        try {
+        	CSV_HEADER = Ini.parseBool(ini.get("csv-header"));
+        } catch (Exception e) {}
+        try {
+        	CITATION_TREND_MONTHS = Integer.parseInt(ini.get("citation-trend-months"));
+        } catch (Exception e) {}
 
         try {
             if (citationServiceActive && !"Citations".equalsIgnoreCase(format)) {
@@ -121,6 +163,12 @@ public class BibtexViewer {
             case "JSON":
                 exporter = new ExportJSON(BibtexViewer.BIBTEX_DIR, "literature.bib");
                 break;
+            case "JSONL":
+                exporter = new ExportJSONL(BibtexViewer.BIBTEX_DIR, "literature.bib");
+                break;
+            case "COLUMNAR":
+                exporter = new ExportColumnar(BibtexViewer.BIBTEX_DIR, "literature.bib");
+                break;
             case "CITATIONS":
                 exporter = new ExportCitations(BibtexViewer.BIBTEX_DIR, "literature.bib");
                 break;
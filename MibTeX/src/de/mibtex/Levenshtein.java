@@ -1,34 +1,253 @@
 /* MibTeX - Minimalistic tool to manage your references with BibTeX
- * 
+ *
  * Distributed under BSD 3-Clause License, available at Github
- * 
+ *
  * https://github.com/tthuem/MibTeX
  */
 package de.mibtex;
 
+import java.util.Random;
+
 /**
  * A method to calculate the edit distance between two strings.
- * 
+ *
+ * The distance is computed with the bit-parallel algorithm of Myers in the
+ * formulation of Hyyrö: each column of the dynamic-programming table is kept
+ * as bit vectors of its vertical differences, one 64-bit word per 64
+ * characters of the shorter string. If only distances up to a bound are of
+ * interest, the computation stops as soon as the bound cannot be met, and a
+ * band of the table is computed instead when it is narrower than the bit
+ * vectors. The buffers are reused per thread.
+ *
  * Adapted from: http://mrfoo.de/archiv/1176-Levenshtein-Distance-in-Java.html
- * 
+ *
  * @author Thomas Thuem
  */
 public class Levenshtein {
-    
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
     public static int getDistance(String s, String t) {
+        int n = s == null ? 0 : s.length();
+        int m = t == null ? 0 : t.length();
+        return getDistance(s, t, Math.max(n, m));
+    }
+
+    /**
+     * Calculates the edit distance, if it is at most maxDistance.
+     *
+     * @return the distance, or a value greater than maxDistance if the
+     *         distance is greater than maxDistance
+     */
+    public static int getDistance(String s, String t, int maxDistance) {
+        if (s == null)
+            s = "";
+        if (t == null)
+            t = "";
+        if (s.length() < t.length()) {
+            String shorter = s;
+            s = t;
+            t = shorter;
+        }
+        int n = s.length();
+        int m = t.length();
+        maxDistance = Math.min(maxDistance, n);
+        if (maxDistance < 0 || n - m > maxDistance)
+            return maxDistance + 1;
+        if (m == 0)
+            return n;
+        Workspace workspace = WORKSPACE.get();
+        int blocks = (m + 63) / 64;
+        if (blocks > 1 && 2 * maxDistance + 1 < 4 * blocks)
+            return getBandedDistance(s, t, maxDistance, workspace);
+        return getBitParallelDistance(s, t, maxDistance, workspace);
+    }
+
+    /**
+     * Myers' algorithm with the shorter string t as pattern, processing s one
+     * character (i.e., one column) at a time.
+     */
+    private static int getBitParallelDistance(String s, String t, int maxDistance, Workspace workspace) {
+        int m = t.length();
+        int blocks = (m + 63) / 64;
+        workspace.setPattern(t, blocks);
+        try {
+            return getBitParallelDistance(s, m, blocks, maxDistance, workspace);
+        } finally {
+            workspace.clearPattern(t);
+        }
+    }
+
+    private static int getBitParallelDistance(String s, int m, int blocks, int maxDistance, Workspace workspace) {
+        int n = s.length();
+        long[] pv = workspace.pv;
+        long[] mv = workspace.mv;
+        for (int b = 0; b < blocks; b++) {
+            pv[b] = -1L;
+            mv[b] = 0L;
+        }
+        long lastBit = 1L << ((m - 1) % 64);
+        int score = m;
+        for (int j = 0; j < n; j++) {
+            int peq = workspace.find(s.charAt(j));
+            // the top row of the table grows by one per column
+            int hin = 1;
+            for (int b = 0; b < blocks; b++) {
+                long eq = peq < 0 ? 0L : workspace.peq[peq + b];
+                long p = pv[b];
+                long mvb = mv[b];
+                long xv = eq | mvb;
+                if (hin < 0)
+                    eq |= 1L;
+                long xh = (((eq & p) + p) ^ p) | eq;
+                long ph = mvb | ~(xh | p);
+                long mh = p & xh;
+                long high = b == blocks - 1 ? lastBit : 1L << 63;
+                int hout = (ph & high) != 0 ? 1 : (mh & high) != 0 ? -1 : 0;
+                ph <<= 1;
+                mh <<= 1;
+                if (hin < 0)
+                    mh |= 1L;
+                else if (hin > 0)
+                    ph |= 1L;
+                pv[b] = mh | ~(xv | ph);
+                mv[b] = ph & xv;
+                hin = hout;
+            }
+            score += hin;
+            // each of the remaining columns lowers the distance by at most one
+            if (score - (n - j - 1) > maxDistance)
+                return maxDistance + 1;
+        }
+        return score;
+    }
+
+    /**
+     * The dynamic-programming table restricted to the cells whose row and
+     * column differ by at most maxDistance; stops as soon as all cells of a
+     * row exceed maxDistance.
+     */
+    private static int getBandedDistance(String s, String t, int maxDistance, Workspace workspace) {
+        int n = s.length();
+        int m = t.length();
+        int infinity = maxDistance + 1;
+        int[] p = workspace.row(0, m + 1);
+        int[] d = workspace.row(1, m + 1);
+        for (int i = 0; i <= m; i++)
+            p[i] = i <= maxDistance ? i : infinity;
+        for (int j = 1; j <= n; j++) {
+            char s_j = s.charAt(j - 1);
+            int from = Math.max(1, j - maxDistance);
+            int to = Math.min(m, j + maxDistance);
+            d[0] = j <= maxDistance ? j : infinity;
+            if (from > 1)
+                d[from - 1] = infinity;
+            int min = d[0];
+            for (int i = from; i <= to; i++) {
+                int cost = t.charAt(i - 1) == s_j ? 0 : 1;
+                int value = Math.min(Math.min(d[i - 1] + 1, p[i] + 1), p[i - 1] + cost);
+                d[i] = Math.min(value, infinity);
+                min = Math.min(min, d[i]);
+            }
+            if (to < m)
+                d[to + 1] = infinity;
+            if (min > maxDistance)
+                return infinity;
+            int[] _d = p;
+            p = d;
+            d = _d;
+        }
+        return p[m];
+    }
+
+    /**
+     * Compares the algorithm with the full dynamic-programming table on
+     * random strings and measures both.
+     *
+     * @param args
+     *            the length of the strings (default: 80) and the number of
+     *            pairs (default: 100000)
+     */
+    public static void main(String[] args) {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 80;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        Random random = new Random(42);
+        String[] s = new String[count];
+        String[] t = new String[count];
+        for (int i = 0; i < count; i++) {
+            s[i] = randomString(random, length);
+            t[i] = mutate(random, s[i], random.nextInt(length / 4 + 1));
+        }
+        for (int i = 0; i < count; i++) {
+            int expected = getFullDistance(s[i], t[i]);
+            int max = length / 10;
+            if (getDistance(s[i], t[i]) != expected
+                    || Math.min(getDistance(s[i], t[i], max), max + 1) != Math.min(expected, max + 1))
+                throw new IllegalStateException("Wrong distance for " + s[i] + " and " + t[i]);
+        }
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < count; i++)
+                sum += getFullDistance(s[i], t[i]);
+            long full = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                sum += getDistance(s[i], t[i]);
+            long bitParallel = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                sum += getDistance(s[i], t[i], length / 10);
+            long bounded = System.nanoTime() - start;
+            System.out.println("full table: " + full / count + " ns, bit-parallel: " + bitParallel / count
+                    + " ns, bounded by 10%: " + bounded / count + " ns (" + sum + ")");
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder string = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            string.append((char) ('a' + random.nextInt(26)));
+        return string.toString();
+    }
+
+    private static String mutate(Random random, String string, int edits) {
+        StringBuilder mutated = new StringBuilder(string);
+        for (int i = 0; i < edits; i++) {
+            int position = random.nextInt(mutated.length() + 1);
+            switch (random.nextInt(3)) {
+            case 0:
+                mutated.insert(position, (char) ('a' + random.nextInt(26)));
+                break;
+            case 1:
+                if (position < mutated.length())
+                    mutated.deleteCharAt(position);
+                break;
+            default:
+                if (position < mutated.length())
+                    mutated.setCharAt(position, (char) ('a' + random.nextInt(26)));
+            }
+        }
+        return mutated.toString();
+    }
+
+    /**
+     * The full dynamic-programming table, as computed before.
+     */
+    static int getFullDistance(String s, String t) {
         int n = s == null ? 0 : s.length();
         int m = t == null ? 0 : t.length();
         if (n == 0)
             return m;
         if (m == 0)
             return n;
-        
+
         int p[] = new int[n + 1];
         int d[] = new int[n + 1];
         int _d[];
         char t_j;
         int cost;
-        
+
         for (int i = 0; i <= n; i++)
             p[i] = i;
         for (int j = 1; j <= m; j++) {
@@ -44,5 +263,86 @@ public class Levenshtein {
         }
         return p[n];
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * Buffers of one thread: the match vectors of the pattern, the vertical
+     * differences of the current column and the rows of the banded table.
+     */
+    private static class Workspace {
+
+        /**
+         * Match vectors, blocks words per character; characters below 128 use
+         * the slot of their code, others one of the slots after those
+         */
+        long[] peq = new long[130];
+
+        /**
+         * Characters of the slots after the first 128
+         */
+        char[] others = new char[2];
+
+        int otherCount;
+
+        int blocks;
+
+        long[] pv = new long[1];
+
+        long[] mv = new long[1];
+
+        int[][] rows = { new int[0], new int[0] };
+
+        void setPattern(String pattern, int blocks) {
+            this.blocks = blocks;
+            otherCount = 0;
+            if (peq.length < (128 + pattern.length()) * blocks)
+                peq = new long[(128 + pattern.length()) * blocks];
+            if (others.length < pattern.length())
+                others = new char[pattern.length()];
+            if (pv.length < blocks) {
+                pv = new long[blocks];
+                mv = new long[blocks];
+            }
+            for (int i = 0; i < pattern.length(); i++) {
+                int slot = slot(pattern.charAt(i));
+                if (slot < 0) {
+                    others[otherCount] = pattern.charAt(i);
+                    slot = (128 + otherCount++) * blocks;
+                }
+                peq[slot + i / 64] |= 1L << (i % 64);
+            }
+        }
+
+        void clearPattern(String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                int slot = slot(pattern.charAt(i));
+                if (slot >= 0)
+                    peq[slot + i / 64] = 0L;
+            }
+            otherCount = 0;
+        }
+
+        /**
+         * Returns the index of the first match vector of a character, or -1 if
+         * it does not occur in the pattern.
+         */
+        int find(char c) {
+            return c < 128 ? c * blocks : slot(c);
+        }
+
+        private int slot(char c) {
+            if (c < 128)
+                return c * blocks;
+            for (int i = 0; i < otherCount; i++)
+                if (others[i] == c)
+                    return (128 + i) * blocks;
+            return -1;
+        }
+
+        int[] row(int index, int length) {
+            if (rows[index].length < length)
+                rows[index] = new int[length];
+            return rows[index];
+        }
+    }
+
+}
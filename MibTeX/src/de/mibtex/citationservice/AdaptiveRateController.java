@@ -0,0 +1,265 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Adapts the rate of a {@link TokenBucket} to how a provider responds. While
+ * requests succeed, the rate grows by a fixed step; when the provider
+ * throttles (a robot page, HTTP 429 or a server error), the rate is halved
+ * (additive increase, multiplicative decrease).
+ *
+ * After several throttled requests in a row, a circuit breaker opens: no
+ * requests are sent for an hour, doubling with each time it opens in a row up
+ * to a maximum. The first request afterwards is a trial; if it succeeds, the
+ * circuit closes and the rate grows again from the minimum, otherwise the
+ * circuit opens again. The rate and the circuit are saved in a file, so that
+ * a restart neither forgets a learned rate nor sends requests while the
+ * circuit is open.
+ */
+public class AdaptiveRateController {
+
+	public static final String FILE_NAME = "circuit.csv";
+
+	/**
+	 * Requests per hour added after each successful request
+	 */
+	public static final double INCREASE = 0.1;
+
+	/**
+	 * Factor by which the rate is cut after a throttled request
+	 */
+	public static final double DECREASE = 0.5;
+
+	/**
+	 * Throttled requests in a row after which the circuit opens
+	 */
+	public static final int MAX_THROTTLED = 3;
+
+	/**
+	 * Time for which the circuit opens the first time
+	 */
+	public static final long MIN_OPEN = 60 * 60 * 1000L;
+
+	public enum State {
+		/**
+		 * Requests are sent at the current rate
+		 */
+		CLOSED,
+		/**
+		 * No requests are sent until the circuit is half open
+		 */
+		OPEN,
+		/**
+		 * The next result decides whether the circuit closes or opens again
+		 */
+		HALF_OPEN
+	}
+
+	private final File stateFile;
+
+	private final TokenBucket bucket;
+
+	private final double minRate;
+
+	private final double maxRate;
+
+	private final long maxOpen;
+
+	private double rate;
+
+	private boolean open = false;
+
+	private long openUntil = 0;
+
+	/**
+	 * Number of times in a row the circuit opened
+	 */
+	private int trips = 0;
+
+	/**
+	 * Number of throttled requests in a row
+	 */
+	private int throttled = 0;
+
+	/**
+	 * @param stateFile
+	 *            file to persist the rate and the circuit
+	 * @param bucket
+	 *            the bucket whose rate is adapted; its rate is the initial rate
+	 *            if no state was saved
+	 * @param minRate
+	 *            the lowest rate in requests per hour
+	 * @param maxRate
+	 *            the highest rate in requests per hour
+	 * @param maxOpen
+	 *            the longest time in milliseconds for which the circuit opens
+	 */
+	public AdaptiveRateController(File stateFile, TokenBucket bucket, double minRate, double maxRate, long maxOpen) {
+		if (minRate <= 0 || maxRate < minRate) {
+			throw new IllegalArgumentException("Invalid rates " + minRate + " to " + maxRate);
+		}
+		this.stateFile = stateFile;
+		this.bucket = bucket;
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.maxOpen = maxOpen;
+		this.rate = bucket.getRate();
+		load();
+		rate = Math.max(minRate, Math.min(maxRate, rate));
+		bucket.setRate(rate);
+		long now = bucket.getClock().millis();
+		if (open && openUntil > now) {
+			System.out.println("Will wait for " + (openUntil - now) / 60000
+					+ " minutes to avoid robot detection, as before the restart");
+			bucket.pause(openUntil - now);
+		}
+	}
+
+	public TokenBucket getBucket() {
+		return bucket;
+	}
+
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	public synchronized State getState() {
+		if (!open) {
+			return State.CLOSED;
+		}
+		return bucket.getClock().millis() < openUntil ? State.OPEN : State.HALF_OPEN;
+	}
+
+	/**
+	 * Returns a provider that reports the result of each lookup of the given
+	 * provider to this controller. Lookups that did not reach the provider,
+	 * such as for entries without DOI or with network problems, change
+	 * nothing.
+	 */
+	public CitationProvider control(CitationProvider provider) {
+		return new CitationProvider() {
+
+			@Override
+			public String getName() {
+				return provider.getName();
+			}
+
+			@Override
+			public int getCitations(CitationEntry entry) throws IOException {
+				int citations;
+				try {
+					citations = provider.getCitations(entry);
+				} catch (HttpStatusException e) {
+					if (e.isThrottling()) {
+						throttled();
+					}
+					throw e;
+				}
+				if (citations == CitationEntry.ROBOT) {
+					throttled();
+				} else if (citations != CitationEntry.NOT_IN_CITATION_SERVICE) {
+					succeeded();
+				}
+				return citations;
+			}
+		};
+	}
+
+	/**
+	 * Records a request that the provider answered normally.
+	 */
+	public synchronized void succeeded() {
+		State state = getState();
+		if (state == State.OPEN) {
+			// sent before the circuit opened
+			return;
+		}
+		if (state == State.HALF_OPEN) {
+			System.out.println("Circuit closed again");
+			open = false;
+			trips = 0;
+		}
+		throttled = 0;
+		setRate(rate + INCREASE);
+		save();
+	}
+
+	/**
+	 * Records a request that the provider throttled.
+	 */
+	public synchronized void throttled() {
+		State state = getState();
+		if (state == State.OPEN) {
+			return;
+		}
+		throttled++;
+		if (state == State.HALF_OPEN || throttled >= MAX_THROTTLED) {
+			trips++;
+			long duration = Math.min(maxOpen, MIN_OPEN << Math.min(trips - 1, 20));
+			open = true;
+			openUntil = bucket.getClock().millis() + duration;
+			setRate(minRate);
+			System.out.println("Will wait for " + duration / 60000 + " minutes to avoid robot detection");
+			bucket.pause(duration);
+		} else {
+			setRate(rate * DECREASE);
+			// discards the tokens saved at the old rate
+			bucket.pause(0);
+		}
+		save();
+	}
+
+	private void setRate(double requestsPerHour) {
+		rate = Math.max(minRate, Math.min(maxRate, requestsPerHour));
+		bucket.setRate(rate);
+	}
+
+	private void load() {
+		if (!stateFile.exists()) {
+			return;
+		}
+		try (BufferedReader br = new BufferedReader(new FileReader(stateFile))) {
+			String line = br.readLine();
+			if (line != null) {
+				String[] str = line.split(";");
+				rate = Double.parseDouble(str[0]);
+				open = Boolean.parseBoolean(str[1]);
+				openUntil = Long.parseLong(str[2]);
+				trips = Integer.parseInt(str[3]);
+				throttled = Integer.parseInt(str[4]);
+			}
+		} catch (IOException e) {
+			System.out.println("IOException for " + stateFile.getAbsolutePath());
+		} catch (RuntimeException e) {
+			System.out.println("Skipping malformed state in " + stateFile.getName());
+		}
+	}
+
+	private void save() {
+		File temporary = new File(stateFile.getPath() + ".tmp");
+		try {
+			try (Writer out = new BufferedWriter(new FileWriter(temporary))) {
+				out.append(rate + ";" + open + ";" + openUntil + ";" + trips + ";" + throttled + ";"
+						+ System.lineSeparator());
+			}
+			Files.move(temporary.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("IOException for " + stateFile.getAbsolutePath());
+		}
+	}
+}
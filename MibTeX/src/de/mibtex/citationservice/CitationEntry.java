@@ -35,6 +35,19 @@ public class CitationEntry implements Comparable<CitationEntry> {
     
     private long lastUpdate = 0;
     
+    private String doi = null;
+    
+    /**
+     * The name of the provider that found the citations
+     */
+    private String source = null;
+    
+    /**
+     * The value the provider returned in the last lookup, which may be a
+     * status code although the old citations were kept
+     */
+    private int lastResult = UNINITIALIZED;
+    
     public CitationEntry(String key, String title) {
         super();
         this.key = key;
@@ -73,25 +86,63 @@ public class CitationEntry implements Comparable<CitationEntry> {
         this.citations = citations;
     }
     
+    public String getDoi() {
+        return doi;
+    }
+    
+    /**
+     * Sets the DOI, which is dropped if it cannot be stored in the CSV format.
+     */
+    public void setDoi(String doi) {
+        if (doi != null) {
+            doi = doi.trim().replaceFirst("^(https?://)?(dx\\.)?doi\\.org/", "");
+        }
+        this.doi = doi == null || doi.isEmpty() || doi.contains(";") || doi.contains("\"") ? null : doi;
+    }
+    
     public boolean updateCitations() {
+        return updateCitations(new ScholarProvider());
+    }
+    
+    public boolean updateCitations(CitationProvider provider) {
+        return updateCitations(provider, ServiceClock.SYSTEM);
+    }
+    
+    /**
+     * Looks up the citations with the given provider and sets the last update
+     * to the current time of the given clock.
+     */
+    public boolean updateCitations(CitationProvider provider, ServiceClock clock) {
     	int citationsTemp = 0;
         System.out.println("Updating the citations of " + key + " with title \"" + getTitle() + "\"...");
         System.out.println("\told citations: " + citations + "   old timestamp: " + getLastUpdateString());
+        // providers that combine others record which of them found the citations
+        String oldSource = source;
+        source = null;
         try {
-            citationsTemp = ScholarCitations.getCitations(title);
+            citationsTemp = provider.getCitations(this);
+            lastResult = citationsTemp;
             if (this.citations > 0 && citationsTemp < 0) {
                 System.out.println("\t" + this.key
                         + ": Has an old citation count, but now an error occurres");
+                source = oldSource;
             }
             else if (citationsTemp != ROBOT) {
             	this.citations = citationsTemp;
+            	if (citationsTemp >= 0 && source == null) {
+            	    setSource(provider.getName());
+            	}
+            } else {
+                source = oldSource;
             }
         } catch (Exception e) {
             this.citations = PROBLEM_OCCURED;
+            lastResult = PROBLEM_OCCURED;
             e.printStackTrace();
         }
-        this.lastUpdate = System.currentTimeMillis();
-        System.out.println("\tnew citations: " + citations + "   new timestamp: " + getLastUpdateString());
+        this.lastUpdate = clock.millis();
+        System.out.println("\tnew citations: " + citations + (source == null ? "" : " from " + source)
+                + "   new timestamp: " + getLastUpdateString());
         if (citationsTemp != ROBOT) {
         	return true;
         } else {
@@ -103,10 +154,33 @@ public class CitationEntry implements Comparable<CitationEntry> {
         return DateFormat.getInstance().format(lastUpdate);
     }
     
+    /**
+     * Returns the citations or the status code that the provider returned in
+     * the last call of {@link #updateCitations(CitationProvider, ServiceClock)}.
+     * Unlike {@link #getCitations()}, it tells a failed lookup apart from one
+     * that found the same citations as before.
+     */
+    public int getLastResult() {
+        return lastResult;
+    }
+    
     public long getLastUpdate() {
         return lastUpdate;
     }
     
+    public String getSource() {
+        return source;
+    }
+    
+    /**
+     * Sets the provider that found the citations, which is dropped if it
+     * cannot be stored in the CSV format.
+     */
+    public void setSource(String source) {
+        this.source = source == null || source.isEmpty() || source.contains(";") || source.contains("\"") ? null
+                : source;
+    }
+    
     public void setLastUpdate(long last_update) {
         this.lastUpdate = last_update;
     }
@@ -117,6 +191,12 @@ public class CitationEntry implements Comparable<CitationEntry> {
         out.append("\"" + getTitle().replace(';', ':') + "\";");
         out.append(getCitations() + ";");
         out.append(getLastUpdate() + ";");
+        if (getDoi() != null || getSource() != null) {
+            out.append("\"" + (getDoi() == null ? "" : getDoi()) + "\";");
+        }
+        if (getSource() != null) {
+            out.append("\"" + getSource() + "\";");
+        }
         out.append(System.getProperty("line.separator"));
         return out.toString();
     }
@@ -138,7 +218,7 @@ public class CitationEntry implements Comparable<CitationEntry> {
     
     @Override
     public int hashCode() {
-        return getKey().hashCode() * getTitle().hashCode();
+        return 31 * getKey().hashCode() + getTitle().hashCode();
     }
     
     public static CitationEntry getFromCSV(String csv) {
@@ -147,7 +227,14 @@ public class CitationEntry implements Comparable<CitationEntry> {
         String title = replaceCSVSpeficics(str[1]);
         int citations = Integer.parseInt(str[2]);
         long lastUpdate = Long.parseLong(str[3]);
-        return new CitationEntry(key, title, citations, lastUpdate);
+        CitationEntry entry = new CitationEntry(key, title, citations, lastUpdate);
+        if (str.length > 4) {
+            entry.setDoi(replaceCSVSpeficics(str[4]));
+        }
+        if (str.length > 5) {
+            entry.setSource(replaceCSVSpeficics(str[5]));
+        }
+        return entry;
     }
     
     private static String replaceCSVSpeficics(String str) {
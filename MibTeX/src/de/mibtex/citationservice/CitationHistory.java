@@ -0,0 +1,355 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The history of the citations of all entries, stored in an append-only file
+ * (history.bin next to citations.csv) that is memory-mapped for reading.
+ *
+ * The file starts with the magic bytes "MIBHIST" and the format version 1,
+ * followed by records of two kinds, each starting with its kind as one byte:
+ * <ul>
+ * <li>0 defines a key: its id and the length of its UTF-8 bytes as unsigned
+ * varints, followed by the bytes. Ids are numbered from 0 in the order of
+ * definition.</li>
+ * <li>1 is a sample: the id of a key, then the time in seconds and the
+ * citations as zig-zag encoded varints, each the difference to the previous
+ * sample of the key (or to 0 for the first sample).</li>
+ * </ul>
+ * A sample is only appended when the citations of an entry changed. A
+ * truncated record at the end, as left by a crash, is ignored and cut off when
+ * the file is opened for appending. Likewise, a file shorter than the magic
+ * bytes, as left by a crash right after its creation, is read as an empty
+ * history. A file with other magic bytes is moved aside when it is opened for
+ * appending, so that a new history is started.
+ */
+public class CitationHistory implements Closeable {
+
+	public static final String FILE_NAME = "history.bin";
+
+	public static final String INVALID_SUFFIX = ".invalid";
+
+	private static final byte[] MAGIC = { 'M', 'I', 'B', 'H', 'I', 'S', 'T', 1 };
+
+	private static final byte DEFINE = 0, SAMPLE = 1;
+
+	/**
+	 * Receives the samples of a history in the order in which they were
+	 * appended; times are in milliseconds, truncated to seconds.
+	 */
+	@FunctionalInterface
+	public interface SampleVisitor {
+		void sample(String key, long time, int citations);
+	}
+
+	/**
+	 * The development of the citations of an entry within a time window.
+	 */
+	public static class Trend {
+
+		public final String key;
+
+		/**
+		 * The latest citations
+		 */
+		public final int citations;
+
+		/**
+		 * The citations gained within the window
+		 */
+		public final int gained;
+
+		/**
+		 * The citations gained within the window relative to the citations at
+		 * its start, e.g., 0.5 for an increase of 50%
+		 */
+		public final double growth;
+
+		/**
+		 * Whether the first sample lies within the window, so that the gain
+		 * only covers part of it
+		 */
+		public final boolean partial;
+
+		Trend(String key, int citations, int gained, double growth, boolean partial) {
+			this.key = key;
+			this.citations = citations;
+			this.gained = gained;
+			this.growth = growth;
+			this.partial = partial;
+		}
+	}
+
+	private final FileChannel channel;
+
+	/**
+	 * The id and last sample of each key, to encode the next sample
+	 */
+	private final Map<String, long[]> series = new HashMap<>();
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(64);
+
+	private CitationHistory(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			long end;
+			if (channel.size() < MAGIC.length) {
+				channel.truncate(0);
+				channel.write(ByteBuffer.wrap(MAGIC));
+				end = MAGIC.length;
+			} else {
+				Map<String, long[]> samples = new HashMap<>();
+				List<String> keys = new ArrayList<>();
+				end = scan(channel, file, (key, time, citations) -> samples.put(key, new long[] { time, citations }),
+						keys);
+				for (int id = 0; id < keys.size(); id++) {
+					long[] sample = samples.getOrDefault(keys.get(id), new long[2]);
+					series.put(keys.get(id), new long[] { id, sample[0] / 1000, sample[1] });
+				}
+			}
+			if (end < channel.size()) {
+				System.out.println("Cutting off incomplete record at the end of " + file.getName());
+				channel.truncate(end);
+			}
+			channel.position(end);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a history for appending samples; creates the file if it does not
+	 * exist. A file that is not a citation history is renamed to end with
+	 * {@link #INVALID_SUFFIX} and replaced by an empty history.
+	 */
+	public static CitationHistory open(File file) throws IOException {
+		if (!isHistory(file)) {
+			File invalid = new File(file.getPath() + INVALID_SUFFIX);
+			Files.move(file.toPath(), invalid.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			System.out.println("Not a citation history, moved to " + invalid.getAbsolutePath());
+		}
+		return new CitationHistory(file);
+	}
+
+	/**
+	 * Checks the magic bytes of a file. Missing files and files shorter than
+	 * the magic bytes count as empty histories.
+	 */
+	private static boolean isHistory(File file) throws IOException {
+		if (!file.exists() || file.length() < MAGIC.length) {
+			return true;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+			while (magic.hasRemaining()) {
+				if (channel.read(magic) < 0) {
+					// shortened meanwhile
+					return true;
+				}
+			}
+			return Arrays.equals(MAGIC, magic.array());
+		}
+	}
+
+	/**
+	 * Appends a sample if the citations differ from the last sample of the
+	 * key. Status codes such as NOT_FOUND are not recorded.
+	 *
+	 * @param time
+	 *            the time of the lookup in milliseconds
+	 */
+	public synchronized void append(String key, long time, int citations) throws IOException {
+		if (citations < 0) {
+			return;
+		}
+		long seconds = time / 1000;
+		long[] last = series.get(key);
+		buffer.clear();
+		if (last == null) {
+			last = new long[] { series.size(), 0, 0 };
+			byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+			ByteBuffer definition = ByteBuffer.allocate(1 + 10 + 5 + bytes.length);
+			definition.put(DEFINE);
+			putVarint(definition, last[0]);
+			putVarint(definition, bytes.length);
+			definition.put(bytes);
+			definition.flip();
+			writeFully(definition);
+			series.put(key, last);
+		} else if (last[2] == citations) {
+			return;
+		}
+		buffer.put(SAMPLE);
+		putVarint(buffer, last[0]);
+		putVarint(buffer, zigZag(seconds - last[1]));
+		putVarint(buffer, zigZag(citations - last[2]));
+		buffer.flip();
+		writeFully(buffer);
+		channel.force(false);
+		last[1] = seconds;
+		last[2] = citations;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Visits all samples of a history in one sequential pass.
+	 */
+	public static void read(File file, SampleVisitor visitor) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			scan(channel, file, visitor, new ArrayList<>());
+		}
+	}
+
+	/**
+	 * Computes the trend of every entry within the window that starts at the
+	 * given time, in one sequential pass over the history.
+	 *
+	 * @param since
+	 *            the start of the window in milliseconds
+	 * @return the trends by key
+	 */
+	public static Map<String, Trend> readTrends(File file, long since) throws IOException {
+		// per key: first time, citations at the start of the window, latest citations
+		Map<String, long[]> states = new LinkedHashMap<>();
+		read(file, (key, time, citations) -> {
+			long[] state = states.computeIfAbsent(key, k -> new long[] { time, citations, citations });
+			if (time <= since) {
+				state[1] = citations;
+			}
+			state[2] = citations;
+		});
+		Map<String, Trend> trends = new LinkedHashMap<>();
+		for (Map.Entry<String, long[]> state : states.entrySet()) {
+			long[] s = state.getValue();
+			int gained = (int) (s[2] - s[1]);
+			trends.put(state.getKey(),
+					new Trend(state.getKey(), (int) s[2], gained, (double) gained / Math.max(1, s[1]), s[0] > since));
+		}
+		return trends;
+	}
+
+	/**
+	 * Reads the records of a history.
+	 *
+	 * @param keys
+	 *            receives the defined keys in the order of their ids
+	 * @return the end of the last complete record
+	 */
+	private static long scan(FileChannel channel, File file, SampleVisitor visitor, List<String> keys)
+			throws IOException {
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("History too large: " + file);
+		}
+		if (size < MAGIC.length) {
+			// empty history, cut off after its creation
+			return 0;
+		}
+		MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		byte[] magic = new byte[MAGIC.length];
+		if (!Arrays.equals(MAGIC, get(data, magic))) {
+			throw new IOException("Not a citation history: " + file);
+		}
+		List<long[]> last = new ArrayList<>();
+		long end = data.position();
+		try {
+			while (data.hasRemaining()) {
+				byte kind = data.get();
+				if (kind == DEFINE) {
+					int id = (int) getVarint(data);
+					byte[] bytes = new byte[(int) getVarint(data)];
+					data.get(bytes);
+					if (id != keys.size()) {
+						throw new IOException("Unexpected key id " + id + " in " + file);
+					}
+					keys.add(new String(bytes, StandardCharsets.UTF_8));
+					last.add(new long[2]);
+				} else if (kind == SAMPLE) {
+					int id = (int) getVarint(data);
+					long time = unZigZag(getVarint(data));
+					long citations = unZigZag(getVarint(data));
+					long[] previous = last.get(id);
+					previous[0] += time;
+					previous[1] += citations;
+					visitor.sample(keys.get(id), previous[0] * 1000, (int) previous[1]);
+				} else {
+					throw new IOException("Unknown record " + kind + " in " + file);
+				}
+				end = data.position();
+			}
+		} catch (BufferUnderflowException e) {
+			// incomplete last record
+		}
+		return end;
+	}
+
+	private static byte[] get(ByteBuffer data, byte[] bytes) {
+		data.get(bytes);
+		return bytes;
+	}
+
+	private void writeFully(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			channel.write(data);
+		}
+	}
+
+	private static void putVarint(ByteBuffer out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	private static long getVarint(ByteBuffer in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
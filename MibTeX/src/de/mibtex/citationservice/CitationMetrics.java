@@ -0,0 +1,462 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the lookups of the citation service by result and measures their
+ * latency. The counters are lock-free, so that lookups on several threads do
+ * not wait for each other. They are published as the MBean
+ * de.mibtex:type=CitationService and periodically written to metrics.txt in
+ * the citation directory, in the text format of Prometheus.
+ *
+ * Latencies are counted in the buckets of a histogram, whose bounds also
+ * limit the resolution of the percentiles. The fetches of the last hour are
+ * counted per minute. As the listener of the {@link HttpTransport}, the
+ * metrics also sum up the single HTTP requests of the lookups per host.
+ */
+public class CitationMetrics implements CitationMetricsMBean, HttpTransport.RequestListener {
+
+	public static final String FILE_NAME = "metrics.txt";
+
+	public static final String OBJECT_NAME = "de.mibtex:type=CitationService";
+
+	/**
+	 * Upper bounds of the buckets of the latency histogram in milliseconds;
+	 * the last bucket has no bound
+	 */
+	private static final long[] BOUNDS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+	private static final long MINUTE = 60 * 1000;
+
+	/**
+	 * Bits of a slot of the last hour that hold the fetches; the bits above
+	 * hold the minute of the slot
+	 */
+	private static final int COUNT_BITS = 20;
+
+	private final File file;
+
+	private final RefreshScheduler scheduler;
+
+	private final long period;
+
+	private final LongAdder found = new LongAdder();
+
+	private final LongAdder notFound = new LongAdder();
+
+	private final LongAdder problems = new LongAdder();
+
+	private final LongAdder robots = new LongAdder();
+
+	private final LongAdder notInCitationService = new LongAdder();
+
+	private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+
+	private final LongAdder latencyNanos = new LongAdder();
+
+	private final LongAccumulator latencyMax = new LongAccumulator(Math::max, 0);
+
+	private final AtomicLongArray lastHour = new AtomicLongArray(60);
+
+	private final Map<String, HostStatistics> hosts = new ConcurrentHashMap<>();
+
+	/**
+	 * Lookups that found citations per provider, i.e., per resolution path
+	 */
+	private final Map<String, LongAdder> sources = new ConcurrentHashMap<>();
+
+	private final ServiceClock clock;
+
+	private ScheduledExecutorService writer;
+
+	private ObjectName name;
+
+	/**
+	 * @param file
+	 *            the file to write the metrics to
+	 * @param scheduler
+	 *            the scheduler whose queue is reported
+	 * @param period
+	 *            milliseconds after which the file is written again, or 0 to
+	 *            only write it when the service stops
+	 */
+	public CitationMetrics(File file, RefreshScheduler scheduler, long period) {
+		this(file, scheduler, period, ServiceClock.SYSTEM);
+	}
+
+	/**
+	 * @param clock
+	 *            the clock that gives the minute of each lookup
+	 */
+	public CitationMetrics(File file, RefreshScheduler scheduler, long period, ServiceClock clock) {
+		this.clock = clock;
+		this.file = file;
+		this.scheduler = scheduler;
+		this.period = period;
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Returns a provider that records each lookup of the given provider.
+	 * Lookups that throw an exception count as PROBLEM_OCCURED.
+	 */
+	public CitationProvider measure(CitationProvider provider) {
+		return new CitationProvider() {
+
+			@Override
+			public String getName() {
+				return provider.getName();
+			}
+
+			@Override
+			public int getCitations(CitationEntry entry) throws IOException {
+				long start = System.nanoTime();
+				int result = CitationEntry.PROBLEM_OCCURED;
+				try {
+					result = provider.getCitations(entry);
+					if (result >= 0) {
+						String source = entry.getSource() != null ? entry.getSource() : provider.getName();
+						sources.computeIfAbsent(source, s -> new LongAdder()).increment();
+					}
+					return result;
+				} finally {
+					record(result, System.nanoTime() - start);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Records a lookup.
+	 *
+	 * @param result
+	 *            the citations or the status code returned by the provider
+	 * @param nanos
+	 *            the duration of the lookup
+	 */
+	public void record(int result, long nanos) {
+		switch (result) {
+		case CitationEntry.NOT_FOUND:
+			notFound.increment();
+			break;
+		case CitationEntry.ROBOT:
+			robots.increment();
+			break;
+		case CitationEntry.NOT_IN_CITATION_SERVICE:
+			notInCitationService.increment();
+			break;
+		default:
+			if (result >= 0) {
+				found.increment();
+			} else {
+				problems.increment();
+			}
+		}
+		long millis = nanos / 1000000;
+		int bucket = 0;
+		while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+			bucket++;
+		}
+		buckets[bucket].increment();
+		latencyNanos.add(nanos);
+		latencyMax.accumulate(millis);
+		long minute = clock.millis() / MINUTE;
+		// a slot that still holds an older minute starts again at 1
+		lastHour.updateAndGet((int) (minute % 60),
+				slot -> slot >>> COUNT_BITS == minute ? slot + 1 : minute << COUNT_BITS | 1);
+	}
+
+	/**
+	 * Records an HTTP request of a lookup and prints its timing.
+	 */
+	@Override
+	public void requested(URI uri, int status, long headerNanos, long totalNanos, long bytes) {
+		System.out.println("\t" + (status < 0 ? "no response" : "HTTP " + status) + " from " + uri.getHost() + " in "
+				+ totalNanos / 1000000 + " ms (headers after " + headerNanos / 1000000 + " ms, " + bytes + " bytes)");
+		HostStatistics host = hosts.computeIfAbsent(String.valueOf(uri.getHost()), h -> new HostStatistics());
+		host.requests.increment();
+		if (status < 0 || status >= 400) {
+			host.errors.increment();
+		}
+		host.headerNanos.add(headerNanos);
+		host.totalNanos.add(totalNanos);
+		host.bytes.add(bytes);
+	}
+
+	/**
+	 * Registers the MBean and starts writing the metrics file.
+	 */
+	public synchronized void start() {
+		try {
+			name = new ObjectName(OBJECT_NAME);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		} catch (JMException e) {
+			System.out.println("Cannot register " + OBJECT_NAME + ": " + e.getMessage());
+			name = null;
+		}
+		if (period > 0) {
+			writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "citations-metrics");
+				thread.setDaemon(true);
+				return thread;
+			});
+			writer.scheduleAtFixedRate(this::write, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Unregisters the MBean and writes the metrics file a last time.
+	 */
+	public synchronized void stop() {
+		if (writer != null) {
+			writer.shutdownNow();
+			writer = null;
+		}
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				System.out.println("Cannot unregister " + OBJECT_NAME + ": " + e.getMessage());
+			}
+			name = null;
+		}
+		write();
+	}
+
+	@Override
+	public long getRequests() {
+		return found.sum() + notFound.sum() + problems.sum() + robots.sum() + notInCitationService.sum();
+	}
+
+	@Override
+	public long getFound() {
+		return found.sum();
+	}
+
+	@Override
+	public long getNotFound() {
+		return notFound.sum();
+	}
+
+	@Override
+	public long getProblems() {
+		return problems.sum();
+	}
+
+	@Override
+	public long getRobots() {
+		return robots.sum();
+	}
+
+	@Override
+	public long getNotInCitationService() {
+		return notInCitationService.sum();
+	}
+
+	@Override
+	public double getSuccessRate() {
+		long requests = getRequests();
+		return requests == 0 ? 0 : (double) found.sum() / requests;
+	}
+
+	@Override
+	public double getLatencyMeanMillis() {
+		long count = getLatencyCount();
+		return count == 0 ? 0 : latencyNanos.sum() / 1e6 / count;
+	}
+
+	@Override
+	public long getLatencyMaxMillis() {
+		return latencyMax.get();
+	}
+
+	@Override
+	public long getLatencyMedianMillis() {
+		return getLatencyPercentile(0.5);
+	}
+
+	@Override
+	public long getLatency95Millis() {
+		return getLatencyPercentile(0.95);
+	}
+
+	@Override
+	public long getFetchesLastHour() {
+		long minute = clock.millis() / MINUTE;
+		long fetches = 0;
+		for (int i = 0; i < lastHour.length(); i++) {
+			long slot = lastHour.get(i);
+			if (slot >>> COUNT_BITS > minute - 60) {
+				fetches += slot & ((1L << COUNT_BITS) - 1);
+			}
+		}
+		return fetches;
+	}
+
+	@Override
+	public int getScheduled() {
+		return scheduler.getScheduled();
+	}
+
+	@Override
+	public int getOverdue() {
+		return scheduler.getOverdue(clock.millis());
+	}
+
+	private long getLatencyCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket that contains the given
+	 * percentile, or the maximum for the last bucket.
+	 */
+	private long getLatencyPercentile(double percentile) {
+		long[] counts = new long[buckets.length];
+		long count = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		long rank = (long) Math.ceil(percentile * count);
+		long cumulative = 0;
+		for (int i = 0; i < BOUNDS.length; i++) {
+			cumulative += counts[i];
+			if (cumulative >= rank) {
+				return count == 0 ? 0 : Math.min(BOUNDS[i], getLatencyMaxMillis());
+			}
+		}
+		return getLatencyMaxMillis();
+	}
+
+	/**
+	 * Writes the metrics to a temporary file that replaces the metrics file,
+	 * so that readers never see a partial file.
+	 */
+	private void write() {
+		File temporary = new File(file.getPath() + ".tmp");
+		try {
+			try (Writer out = new BufferedWriter(new FileWriter(temporary))) {
+				out.append("# HELP mibtex_citation_requests_total Lookups of the citation service by result\n");
+				out.append("# TYPE mibtex_citation_requests_total counter\n");
+				appendSample(out, "mibtex_citation_requests_total{result=\"found\"}", found.sum());
+				appendSample(out, "mibtex_citation_requests_total{result=\"not_found\"}", notFound.sum());
+				appendSample(out, "mibtex_citation_requests_total{result=\"problem\"}", problems.sum());
+				appendSample(out, "mibtex_citation_requests_total{result=\"robot\"}", robots.sum());
+				appendSample(out, "mibtex_citation_requests_total{result=\"not_in_citation_service\"}",
+						notInCitationService.sum());
+				out.append("# HELP mibtex_citation_latency_seconds Duration of the lookups\n");
+				out.append("# TYPE mibtex_citation_latency_seconds histogram\n");
+				long cumulative = 0;
+				for (int i = 0; i < BOUNDS.length; i++) {
+					cumulative += buckets[i].sum();
+					appendSample(out, "mibtex_citation_latency_seconds_bucket{le=\"" + BOUNDS[i] / 1000.0 + "\"}",
+							cumulative);
+				}
+				cumulative += buckets[BOUNDS.length].sum();
+				appendSample(out, "mibtex_citation_latency_seconds_bucket{le=\"+Inf\"}", cumulative);
+				out.append("mibtex_citation_latency_seconds_sum "
+						+ String.format(Locale.ROOT, "%.3f", latencyNanos.sum() / 1e9) + "\n");
+				appendSample(out, "mibtex_citation_latency_seconds_count", cumulative);
+				out.append("# HELP mibtex_citation_fetches_last_hour Lookups within the last 60 minutes\n");
+				out.append("# TYPE mibtex_citation_fetches_last_hour gauge\n");
+				appendSample(out, "mibtex_citation_fetches_last_hour", getFetchesLastHour());
+				out.append("# HELP mibtex_citation_scheduled Entries waiting to be refreshed\n");
+				out.append("# TYPE mibtex_citation_scheduled gauge\n");
+				appendSample(out, "mibtex_citation_scheduled", getScheduled());
+				out.append("# HELP mibtex_citation_overdue Entries whose refresh is overdue\n");
+				out.append("# TYPE mibtex_citation_overdue gauge\n");
+				appendSample(out, "mibtex_citation_overdue", getOverdue());
+				if (!sources.isEmpty()) {
+					out.append("# HELP mibtex_citation_found_total Lookups that found citations per provider\n");
+					out.append("# TYPE mibtex_citation_found_total counter\n");
+					for (Map.Entry<String, LongAdder> source : sources.entrySet()) {
+						appendSample(out, "mibtex_citation_found_total{source=\"" + source.getKey() + "\"}",
+								source.getValue().sum());
+					}
+				}
+				appendHosts(out, "mibtex_http_requests_total", "counter", "HTTP requests per host",
+						host -> host.requests.sum());
+				appendHosts(out, "mibtex_http_errors_total", "counter",
+						"HTTP requests per host without response or with an error status", host -> host.errors.sum());
+				appendHosts(out, "mibtex_http_headers_seconds_sum", "counter",
+						"Time until the headers of the responses per host arrived", host -> host.headerNanos.sum() / 1e9);
+				appendHosts(out, "mibtex_http_response_seconds_sum", "counter",
+						"Time until the responses per host were read", host -> host.totalNanos.sum() / 1e9);
+				appendHosts(out, "mibtex_http_response_bytes_total", "counter",
+						"Transferred bytes of the responses per host", host -> host.bytes.sum());
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("IOException for " + file.getAbsolutePath());
+		}
+	}
+
+	private static void appendSample(Writer out, String name, long value) throws IOException {
+		out.append(name).append(' ').append(Long.toString(value)).append('\n');
+	}
+
+	private void appendHosts(Writer out, String name, String type, String help,
+			ToDoubleFunction<HostStatistics> value) throws IOException {
+		if (hosts.isEmpty()) {
+			return;
+		}
+		out.append("# HELP " + name + " " + help + "\n");
+		out.append("# TYPE " + name + " " + type + "\n");
+		for (Map.Entry<String, HostStatistics> host : hosts.entrySet()) {
+			double v = value.applyAsDouble(host.getValue());
+			out.append(name + "{host=\"" + host.getKey() + "\"} "
+					+ (v == Math.rint(v) ? Long.toString((long) v) : String.format(Locale.ROOT, "%.3f", v)) + "\n");
+		}
+	}
+
+	/**
+	 * The HTTP requests to a host.
+	 */
+	private static class HostStatistics {
+
+		final LongAdder requests = new LongAdder();
+
+		final LongAdder errors = new LongAdder();
+
+		final LongAdder headerNanos = new LongAdder();
+
+		final LongAdder totalNanos = new LongAdder();
+
+		final LongAdder bytes = new LongAdder();
+	}
+}
@@ -0,0 +1,53 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+/**
+ * The attributes of {@link CitationMetrics} as shown by JMX clients such as
+ * JConsole, under the name de.mibtex:type=CitationService.
+ */
+public interface CitationMetricsMBean {
+
+	long getRequests();
+
+	long getFound();
+
+	long getNotFound();
+
+	long getProblems();
+
+	long getRobots();
+
+	long getNotInCitationService();
+
+	/**
+	 * Share of the requests that returned citations
+	 */
+	double getSuccessRate();
+
+	double getLatencyMeanMillis();
+
+	long getLatencyMaxMillis();
+
+	/**
+	 * Upper bound of the latency of half of the requests, as resolved by the
+	 * buckets of the histogram
+	 */
+	long getLatencyMedianMillis();
+
+	/**
+	 * Upper bound of the latency of 95% of the requests, as resolved by the
+	 * buckets of the histogram
+	 */
+	long getLatency95Millis();
+
+	long getFetchesLastHour();
+
+	int getScheduled();
+
+	int getOverdue();
+}
@@ -0,0 +1,34 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.IOException;
+
+/**
+ * A source of citation counts, such as Google Scholar or a JSON API queried
+ * by DOI.
+ */
+public interface CitationProvider {
+
+	/**
+	 * Returns the name of the provider as used in the option
+	 * citation-providers.
+	 */
+	String getName();
+
+	/**
+	 * Looks up the citations of an entry.
+	 *
+	 * @return the number of citations, NOT_FOUND if the provider does not know
+	 *         the entry, NOT_IN_CITATION_SERVICE if the provider cannot look up
+	 *         the entry (e.g., because it has no DOI), or ROBOT if the provider
+	 *         refuses requests for now
+	 * @throws IOException
+	 *             if the provider cannot be reached
+	 */
+	int getCitations(CitationEntry entry) throws IOException;
+}
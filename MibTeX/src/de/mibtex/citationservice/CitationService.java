@@ -8,6 +8,9 @@ package de.mibtex.citationservice;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 import de.mibtex.Ini;
 
@@ -20,6 +23,38 @@ public class CitationService {
 
 	private static String CITATION_DIR;
 
+	private static double RATE = 60.0 / ScholarService.MIN_DELAY;
+
+	private static int BURST = 1;
+
+	private static double MIN_RATE = ScholarService.MIN_RATE;
+
+	private static double MAX_RATE = ScholarService.MAX_RATE;
+
+	private static int JITTER = ScholarService.EXTRA_DELAY;
+
+	private static int THREADS = 1;
+
+	private static int REFRESH_DAYS = ScholarService.REFRESH_DAYS;
+
+	private static double VELOCITY_WEIGHT = ScholarService.VELOCITY_WEIGHT;
+
+	private static int CACHE_DAYS = 7;
+
+	private static int CACHE_MB = 100;
+
+	private static String PROVIDERS = ScholarService.PROVIDERS;
+
+	private static CombinedProvider.Policy POLICY = CombinedProvider.Policy.FALLBACK;
+
+	private static String STAND_IN = null;
+
+	private static int METRICS_SECONDS = ScholarService.METRICS_SECONDS;
+
+	private static int CONNECT_TIMEOUT = HttpTransport.CONNECT_TIMEOUT;
+
+	private static int TIMEOUT = HttpTransport.TIMEOUT;
+
 	/**
 	 * Example arguments
 	 * 
@@ -42,6 +77,52 @@ public class CitationService {
                 if (CITATION_DIR == null || CITATION_DIR.isEmpty()) {
                     CITATION_DIR = ini.get("bibtex-dir");
                 }
+                try {
+                	RATE = Double.parseDouble(ini.get("citation-rate"));
+                } catch (Exception e) {}
+                try {
+                	BURST = Integer.parseInt(ini.get("citation-burst"));
+                } catch (Exception e) {}
+                try {
+                	MIN_RATE = Double.parseDouble(ini.get("citation-min-rate"));
+                } catch (Exception e) {}
+                try {
+                	MAX_RATE = Double.parseDouble(ini.get("citation-max-rate"));
+                } catch (Exception e) {}
+                try {
+                	JITTER = Integer.parseInt(ini.get("citation-jitter"));
+                } catch (Exception e) {}
+                try {
+                	THREADS = Integer.parseInt(ini.get("citation-threads"));
+                } catch (Exception e) {}
+                try {
+                	REFRESH_DAYS = Integer.parseInt(ini.get("citation-refresh-days"));
+                } catch (Exception e) {}
+                try {
+                	VELOCITY_WEIGHT = Double.parseDouble(ini.get("citation-velocity-weight"));
+                } catch (Exception e) {}
+                try {
+                	CACHE_DAYS = Integer.parseInt(ini.get("citation-cache-days"));
+                } catch (Exception e) {}
+                try {
+                	CACHE_MB = Integer.parseInt(ini.get("citation-cache-mb"));
+                } catch (Exception e) {}
+                if (ini.get("citation-providers") != null && !ini.get("citation-providers").isEmpty()) {
+                	PROVIDERS = ini.get("citation-providers");
+                }
+                try {
+                	POLICY = CombinedProvider.Policy.valueOf(ini.get("citation-policy").toUpperCase());
+                } catch (Exception e) {}
+                STAND_IN = ini.get("citation-stand-in");
+                try {
+                	METRICS_SECONDS = Integer.parseInt(ini.get("citation-metrics-seconds"));
+                } catch (Exception e) {}
+                try {
+                	CONNECT_TIMEOUT = Integer.parseInt(ini.get("citation-connect-timeout"));
+                } catch (Exception e) {}
+                try {
+                	TIMEOUT = Integer.parseInt(ini.get("citation-timeout"));
+                } catch (Exception e) {}
             }
 		} else {
 			try {
@@ -54,11 +135,51 @@ public class CitationService {
             File citationsFile = new File(CITATION_DIR, "citations.csv");
             File problemsFile = new File(CITATION_DIR, "problems.csv");
             if (!problemsFile.exists()) problemsFile.createNewFile();
-            ScholarService service = new ScholarService(citationsFile, problemsFile);
+            if (CACHE_DAYS > 0 && CACHE_MB > 0) {
+                ScholarCitations.setCache(new ResponseCache(new File(CITATION_DIR, "cache"),
+                        CACHE_DAYS * RefreshScheduler.DAY, CACHE_MB * 1024L * 1024));
+            }
+            HttpTransport.setDefault(
+                    new HttpTransport(Duration.ofSeconds(CONNECT_TIMEOUT), Duration.ofSeconds(TIMEOUT)));
+            AdaptiveRateController rate = new AdaptiveRateController(
+                    new File(CITATION_DIR, AdaptiveRateController.FILE_NAME),
+                    new TokenBucket(RATE, BURST, JITTER * 1000), MIN_RATE, MAX_RATE,
+                    ScholarService.MIN_ROBOT * 60 * 1000L);
+            RefreshScheduler scheduler = new RefreshScheduler(new File(CITATION_DIR, "schedule.csv"),
+                    REFRESH_DAYS * RefreshScheduler.DAY, VELOCITY_WEIGHT);
+            ScholarService service = new ScholarService(citationsFile, problemsFile, rate, THREADS, scheduler,
+                    new CombinedProvider(getProviders(), POLICY), METRICS_SECONDS * 1000L);
             service.start();
         } catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	private static List<CitationProvider> getProviders() {
+		List<CitationProvider> providers = new ArrayList<>();
+		for (String name : PROVIDERS.split(",")) {
+			switch (name.trim().toLowerCase()) {
+			case ScholarProvider.NAME:
+				providers.add(new ScholarProvider(getUrl(ScholarProvider.URL)));
+				break;
+			case "crossref":
+				providers.add(JsonCitationProvider.crossref(getUrl(JsonCitationProvider.CROSSREF_HOST)));
+				break;
+			case "opencitations":
+				providers.add(JsonCitationProvider.openCitations(getUrl(JsonCitationProvider.OPENCITATIONS_HOST)));
+				break;
+			default:
+				System.out.println("Unknown citation provider " + name);
+			}
+		}
+		if (providers.isEmpty()) {
+			providers.add(new ScholarProvider(getUrl(ScholarProvider.URL)));
+		}
+		return providers;
+	}
+
+	private static String getUrl(String url) {
+		return STAND_IN == null || STAND_IN.isEmpty() ? url : StandInServer.redirect(url, STAND_IN);
+	}
+
 }
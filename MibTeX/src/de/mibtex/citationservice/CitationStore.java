@@ -0,0 +1,409 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * The citations of all entries, stored as a snapshot (citations.csv) and a
+ * journal next to it (citations.csv.journal). Each update appends a single
+ * line to the journal, which has the format of the snapshot; when the journal
+ * is read, the last line of each key wins. The journal is merged into the
+ * snapshot from time to time by writing a new snapshot and renaming it over
+ * the old one, so a crash loses at most the update that was being written.
+ *
+ * Readers and writers, such as the exports and a running citation service,
+ * take an advisory lock on citations.csv.lock: a shared lock to read and an
+ * exclusive lock to write, within a process also serialized by a lock per
+ * file. An open store holds the lock only for each access and checks whether
+ * another writer replaced the snapshot or appended to the journal in the
+ * meantime; if so, it reloads the entries before it continues.
+ */
+public class CitationStore implements Closeable {
+
+	public static final String JOURNAL_SUFFIX = ".journal";
+
+	public static final String LOCK_SUFFIX = ".lock";
+
+	/**
+	 * Number of journal lines after which the journal is merged into the
+	 * snapshot
+	 */
+	private static final int COMPACTION_THRESHOLD = 100;
+
+	private final File snapshot;
+
+	private final File journal;
+
+	private final Map<String, CitationEntry> entries;
+
+	private FileOutputStream journalStream;
+
+	private Writer journalOut;
+
+	private int journalLines = 0;
+
+	/**
+	 * Whether the journal ends in the middle of a line
+	 */
+	private boolean journalCut = false;
+
+	/**
+	 * The files as this store last wrote or read them, to notice changes by
+	 * other writers
+	 */
+	private Object stamp;
+
+	/**
+	 * Counts the reloads after changes by other writers
+	 */
+	private int generation = 0;
+
+	/**
+	 * Serializes the accesses of a process to a store, because file locks are
+	 * held by the whole process
+	 */
+	private static final Map<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+	@FunctionalInterface
+	private interface LockedAction<T> {
+		T run() throws IOException;
+	}
+
+	private CitationStore(File snapshot) throws IOException {
+		this.snapshot = snapshot;
+		this.journal = getJournal(snapshot);
+		this.entries = new LinkedHashMap<>();
+		withLock(snapshot, true, () -> {
+			entries.putAll(load(snapshot));
+			if (journal.exists() && journal.length() > 0) {
+				compact();
+			}
+			openJournal();
+			stamp = stamp();
+			return null;
+		});
+	}
+
+	/**
+	 * Opens the store for updates. Pending journal lines of a previous run are
+	 * merged into the snapshot right away.
+	 */
+	public static CitationStore open(File snapshot) throws IOException {
+		return new CitationStore(snapshot);
+	}
+
+	/**
+	 * Reads the current citations of a store without opening it for updates.
+	 * If the lock file cannot be opened, such as by a user who may read but
+	 * not write the directory of the store, the citations are read without
+	 * the lock.
+	 */
+	public static List<CitationEntry> read(File snapshot) {
+		try {
+			return withLock(snapshot, false, () -> new ArrayList<>(load(snapshot).values()));
+		} catch (IOException e) {
+			System.out.println("IOException for " + snapshot.getAbsolutePath() + LOCK_SUFFIX
+					+ ", reading the citations without lock");
+			return new ArrayList<>(load(snapshot).values());
+		}
+	}
+
+	/**
+	 * Replaces all citations of a store.
+	 */
+	public static void write(File snapshot, Collection<CitationEntry> entries) throws IOException {
+		rewrite(snapshot, current -> new ArrayList<>(entries));
+	}
+
+	/**
+	 * Replaces the citations of a store by the result of the given function,
+	 * such as when the entries are synchronized with the BibTeX file. The
+	 * store is locked from reading to writing, so no update of an open store
+	 * gets lost in between.
+	 */
+	public static void rewrite(File snapshot, UnaryOperator<List<CitationEntry>> function) throws IOException {
+		withLock(snapshot, true, () -> {
+			writeSnapshot(snapshot, function.apply(new ArrayList<>(load(snapshot).values())));
+			Files.deleteIfExists(getJournal(snapshot).toPath());
+			return null;
+		});
+	}
+
+	/**
+	 * Runs an action while holding the lock of a store.
+	 *
+	 * @param exclusive
+	 *            true to write, false to read
+	 */
+	private static <T> T withLock(File snapshot, boolean exclusive, LockedAction<T> action) throws IOException {
+		File lockFile = new File(snapshot.getPath() + LOCK_SUFFIX);
+		ReentrantLock lock = LOCKS.computeIfAbsent(lockFile.getAbsolutePath(), path -> new ReentrantLock());
+		lock.lock();
+		try (FileChannel channel = openLock(lockFile, exclusive)) {
+			FileLock fileLock = channel.lock(0, Long.MAX_VALUE, !exclusive);
+			try {
+				return action.run();
+			} finally {
+				fileLock.release();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Opens the lock file of a store. A shared lock only needs to read, so an
+	 * existing lock file is opened read-only for it.
+	 */
+	private static FileChannel openLock(File lockFile, boolean exclusive) throws IOException {
+		if (!exclusive && lockFile.exists()) {
+			return FileChannel.open(lockFile.toPath(), StandardOpenOption.READ);
+		}
+		return FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	private static File getJournal(File snapshot) {
+		return new File(snapshot.getPath() + JOURNAL_SUFFIX);
+	}
+
+	private static Map<String, CitationEntry> load(File snapshot) {
+		Map<String, CitationEntry> entries = new LinkedHashMap<>();
+		readLines(snapshot, entries);
+		readLines(getJournal(snapshot), entries);
+		return entries;
+	}
+
+	/**
+	 * Reads the entries of a file into the given map. Lines that do not end
+	 * with the ; that closes each entry are skipped: the last line of the
+	 * journal is incomplete after a crash, and a cut line could otherwise
+	 * still be parsed, such as with a shortened timestamp or DOI.
+	 *
+	 * @return the number of lines read
+	 */
+	private static int readLines(File file, Map<String, CitationEntry> entries) {
+		int lines = 0;
+		if (!file.exists()) {
+			return lines;
+		}
+		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+			for (String line; (line = br.readLine()) != null;) {
+				lines++;
+				try {
+					if (!line.trim().endsWith(";")) {
+						throw new IllegalArgumentException(line);
+					}
+					CitationEntry entry = CitationEntry.getFromCSV(line);
+					entries.put(entry.getKey(), entry);
+				} catch (RuntimeException e) {
+					System.out.println("Skipping malformed line in " + file.getName() + ": " + line);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("IOException for " + file.getAbsolutePath());
+		}
+		return lines;
+	}
+
+	private static boolean endsWithLine(File file) throws IOException {
+		if (!file.exists() || file.length() == 0) {
+			return true;
+		}
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			in.seek(file.length() - 1);
+			return in.read() == '\n';
+		}
+	}
+
+	private static void writeSnapshot(File snapshot, Collection<CitationEntry> entries) throws IOException {
+		File temporary = new File(snapshot.getPath() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temporary);
+				Writer out = new BufferedWriter(new OutputStreamWriter(stream))) {
+			for (CitationEntry entry : entries) {
+				out.append(entry.getCSVString());
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void openJournal() throws IOException {
+		journalStream = new FileOutputStream(journal, true);
+		journalOut = new BufferedWriter(new OutputStreamWriter(journalStream));
+	}
+
+	/**
+	 * Returns copies of all entries in the order of the snapshot.
+	 */
+	public synchronized List<CitationEntry> getEntries() throws IOException {
+		return withLock(snapshot, false, () -> {
+			reloadIfChanged();
+			List<CitationEntry> copies = new ArrayList<>();
+			for (CitationEntry entry : entries.values()) {
+				copies.add(copy(entry));
+			}
+			return copies;
+		});
+	}
+
+	/**
+	 * Returns a copy of an entry, or null if the store has no such entry
+	 * (anymore).
+	 */
+	public synchronized CitationEntry get(String key) throws IOException {
+		return withLock(snapshot, false, () -> {
+			reloadIfChanged();
+			CitationEntry entry = entries.get(key);
+			return entry == null ? null : copy(entry);
+		});
+	}
+
+	/**
+	 * Returns the number of times the store reloaded its entries because
+	 * another writer changed them, so that users of the entries can notice.
+	 */
+	public synchronized int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Stores the citations of an entry by appending a line to the journal.
+	 * Entries that another writer removed in the meantime are not added
+	 * again.
+	 */
+	public synchronized void update(CitationEntry entry) throws IOException {
+		withLock(snapshot, true, () -> {
+			reloadIfChanged();
+			if (!entries.containsKey(entry.getKey())) {
+				return null;
+			}
+			entries.put(entry.getKey(), copy(entry));
+			if (journalCut) {
+				// only compacted here, as reloading may hold the lock shared with other readers
+				closeJournal();
+				compact();
+				openJournal();
+				journalCut = false;
+			}
+			journalOut.append(entry.getCSVString());
+			journalOut.flush();
+			journalStream.getFD().sync();
+			if (++journalLines >= COMPACTION_THRESHOLD) {
+				closeJournal();
+				compact();
+				openJournal();
+			}
+			stamp = stamp();
+			return null;
+		});
+	}
+
+	/**
+	 * Reloads the entries if another writer changed the files since this
+	 * store accessed them last. The journal is opened again, as a new snapshot
+	 * comes without the old journal.
+	 */
+	private void reloadIfChanged() throws IOException {
+		Object current = stamp();
+		if (current.equals(stamp)) {
+			return;
+		}
+		System.out.println("Reloading " + snapshot.getName() + " after a change by another writer");
+		closeJournal();
+		entries.clear();
+		readLines(snapshot, entries);
+		// the journal that was read is compacted as if this store had written it
+		journalLines = readLines(journal, entries);
+		// another writer crashed in the middle of a line, to which the next update would be appended
+		journalCut = !endsWithLine(journal);
+		openJournal();
+		stamp = current;
+		generation++;
+	}
+
+	/**
+	 * Identifies the current versions of the snapshot, which is replaced by
+	 * renaming, and the journal, which only grows.
+	 */
+	private Object stamp() throws IOException {
+		List<Object> stamp = new ArrayList<>();
+		if (snapshot.exists()) {
+			BasicFileAttributes attributes = Files.readAttributes(snapshot.toPath(), BasicFileAttributes.class);
+			stamp.add(attributes.fileKey());
+			stamp.add(attributes.lastModifiedTime().toMillis());
+			stamp.add(attributes.size());
+		}
+		stamp.add(journal.length());
+		return stamp;
+	}
+
+	/**
+	 * Writes all entries to a new snapshot and empties the journal. The
+	 * journal is only deleted after the snapshot replaced the old one; if the
+	 * service stops in between, reading the journal again is harmless.
+	 */
+	private void compact() throws IOException {
+		System.out.print("Compacting " + snapshot.getName() + "... ");
+		writeSnapshot(snapshot, entries.values());
+		Files.deleteIfExists(journal.toPath());
+		journalLines = 0;
+		System.out.println("done.");
+	}
+
+	private void closeJournal() throws IOException {
+		if (journalOut != null) {
+			journalOut.close();
+			journalOut = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		withLock(snapshot, true, () -> {
+			closeJournal();
+			if (journalLines > 0 && stamp().equals(stamp)) {
+				compact();
+			}
+			return null;
+		});
+	}
+
+	private static CitationEntry copy(CitationEntry entry) {
+		CitationEntry copy = new CitationEntry(entry.getKey(), entry.getTitle(), entry.getCitations(),
+				entry.getLastUpdate());
+		copy.setDoi(entry.getDoi());
+		copy.setSource(entry.getSource());
+		return copy;
+	}
+}
@@ -0,0 +1,167 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Asks several providers at once and combines their results, or asks them one
+ * after another until one found the entry.
+ *
+ * If any provider refuses requests, the result is ROBOT so that the service
+ * backs off. Otherwise, the policy picks among the providers that found the
+ * entry. If none found it, the lookup fails with the first exception of a
+ * provider, or else yields NOT_FOUND if a provider does not know the entry and
+ * NOT_IN_CITATION_SERVICE if no provider could look it up. The provider whose
+ * citations are taken is recorded as the source of the entry.
+ */
+public class CombinedProvider implements CitationProvider {
+
+	public enum Policy {
+		/**
+		 * The citations of the first provider in the list that found the entry
+		 */
+		FIRST,
+		/**
+		 * The highest citations of all providers that found the entry
+		 */
+		MAX,
+		/**
+		 * The citations of the first provider in the list that found the
+		 * entry, asking the next provider only if the previous one could not
+		 * look up the entry, did not find it or failed; with providers by DOI
+		 * first, entries with a DOI usually take a single exact request
+		 */
+		FALLBACK
+	}
+
+	private final List<CitationProvider> providers;
+
+	private final Policy policy;
+
+	private final ExecutorService executor;
+
+	public CombinedProvider(List<CitationProvider> providers, Policy policy) {
+		this.providers = new ArrayList<>(providers);
+		this.policy = policy;
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "citation-provider");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public String getName() {
+		List<String> names = new ArrayList<>();
+		for (CitationProvider provider : providers) {
+			names.add(provider.getName());
+		}
+		return String.join(",", names);
+	}
+
+	@Override
+	public int getCitations(CitationEntry entry) throws IOException {
+		if (providers.size() == 1) {
+			return providers.get(0).getCitations(entry);
+		}
+		if (policy == Policy.FALLBACK) {
+			return getFallbackCitations(entry);
+		}
+		List<Future<Integer>> futures = new ArrayList<>();
+		for (CitationProvider provider : providers) {
+			futures.add(executor.submit(() -> provider.getCitations(entry)));
+		}
+		int result = CitationEntry.NOT_IN_CITATION_SERVICE;
+		String source = null;
+		boolean robot = false;
+		boolean notFound = false;
+		IOException problem = null;
+		for (int i = 0; i < futures.size(); i++) {
+			int citations;
+			try {
+				citations = futures.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + providers.get(i).getName());
+			} catch (ExecutionException e) {
+				if (problem == null) {
+					problem = e.getCause() instanceof IOException ? (IOException) e.getCause()
+							: new IOException(e.getCause());
+				}
+				continue;
+			}
+			if (citations == CitationEntry.ROBOT) {
+				robot = true;
+			} else if (citations == CitationEntry.NOT_FOUND) {
+				notFound = true;
+			} else if (citations >= 0 && (result < 0 || (policy == Policy.MAX && citations > result))) {
+				result = citations;
+				source = providers.get(i).getName();
+			}
+		}
+		if (robot) {
+			return CitationEntry.ROBOT;
+		}
+		if (result >= 0) {
+			entry.setSource(source);
+			return result;
+		}
+		if (problem != null) {
+			throw problem;
+		}
+		return notFound ? CitationEntry.NOT_FOUND : CitationEntry.NOT_IN_CITATION_SERVICE;
+	}
+
+	/**
+	 * Asks the providers in the order of the list until one found the entry.
+	 * A provider that throttles ends the lookup, so that the service backs
+	 * off instead of moving on to the next provider.
+	 */
+	private int getFallbackCitations(CitationEntry entry) throws IOException {
+		boolean notFound = false;
+		IOException problem = null;
+		for (CitationProvider provider : providers) {
+			int citations;
+			try {
+				citations = provider.getCitations(entry);
+			} catch (InterruptedIOException e) {
+				throw e;
+			} catch (IOException e) {
+				if (e instanceof HttpStatusException && ((HttpStatusException) e).isThrottling()) {
+					throw e;
+				}
+				System.out.println("\t" + provider.getName() + " failed, trying the next provider: " + e.getMessage());
+				if (problem == null) {
+					problem = e;
+				}
+				continue;
+			}
+			if (citations == CitationEntry.ROBOT) {
+				return CitationEntry.ROBOT;
+			}
+			if (citations >= 0) {
+				entry.setSource(provider.getName());
+				return citations;
+			}
+			if (citations == CitationEntry.NOT_FOUND) {
+				notFound = true;
+			}
+		}
+		if (problem != null) {
+			throw problem;
+		}
+		return notFound ? CitationEntry.NOT_FOUND : CitationEntry.NOT_IN_CITATION_SERVICE;
+	}
+}
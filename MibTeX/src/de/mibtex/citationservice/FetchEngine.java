@@ -0,0 +1,127 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs citation lookups concurrently. Each lane stands for a provider or
+ * endpoint and has its own token bucket and number of threads, so lanes for
+ * different providers run in parallel without affecting each other's rate.
+ */
+public class FetchEngine {
+
+	/**
+	 * A single lookup, such as updating the citations of the next entry.
+	 */
+	@FunctionalInterface
+	public interface Fetch {
+		/**
+		 * @return false if the provider detected the service as a robot
+		 */
+		boolean run() throws InterruptedException;
+	}
+
+	private final List<Lane> lanes = new ArrayList<>();
+
+	private final List<ExecutorService> executors = new ArrayList<>();
+
+	/**
+	 * Adds a lane that repeatedly runs the given lookup.
+	 *
+	 * @param backoffMillis
+	 *            the time for which the lane pauses after robot detection, or
+	 *            0 if the lookup pauses the bucket itself
+	 */
+	public void addLane(String name, TokenBucket bucket, int threads, long backoffMillis, Fetch fetch) {
+		lanes.add(new Lane(name, bucket, threads, backoffMillis, fetch));
+	}
+
+	public synchronized void start() {
+		for (Lane lane : lanes) {
+			ExecutorService executor = Executors.newFixedThreadPool(lane.threads, runnable -> {
+				Thread thread = new Thread(runnable, "citations-" + lane.name);
+				thread.setDaemon(false);
+				return thread;
+			});
+			for (int i = 0; i < lane.threads; i++) {
+				executor.execute(lane::run);
+			}
+			executors.add(executor);
+		}
+	}
+
+	/**
+	 * Stops all lanes and waits until running lookups finished.
+	 */
+	public synchronized void stop() throws InterruptedException {
+		for (ExecutorService executor : executors) {
+			executor.shutdownNow();
+		}
+		for (ExecutorService executor : executors) {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		executors.clear();
+	}
+
+	/**
+	 * Blocks until all lanes stopped.
+	 */
+	public void awaitTermination() throws InterruptedException {
+		List<ExecutorService> running;
+		synchronized (this) {
+			running = new ArrayList<>(executors);
+		}
+		for (ExecutorService executor : running) {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static class Lane {
+
+		final String name;
+
+		final TokenBucket bucket;
+
+		final int threads;
+
+		final long backoffMillis;
+
+		final Fetch fetch;
+
+		Lane(String name, TokenBucket bucket, int threads, long backoffMillis, Fetch fetch) {
+			this.name = name;
+			this.bucket = bucket;
+			this.threads = threads;
+			this.backoffMillis = backoffMillis;
+			this.fetch = fetch;
+		}
+
+		void run() {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					bucket.acquire();
+					if (!fetch.run() && backoffMillis > 0) {
+						System.out.println("Will wait for " + backoffMillis / 60000
+								+ " minutes to avoid robot detection (" + name + ")");
+						bucket.pause(backoffMillis);
+					}
+				} catch (InterruptedException e) {
+					return;
+				} catch (RuntimeException e) {
+					// a failed lookup must not stop the lane
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.IOException;
+
+/**
+ * Signals that a provider answered a request with an HTTP error status, so
+ * that server errors can be told apart from network problems.
+ */
+public class HttpStatusException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+
+	public HttpStatusException(int status, String url) {
+		super("HTTP status " + status + " for " + url);
+		this.status = status;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns whether the status asks the client to send fewer requests, i.e.,
+	 * 429 (too many requests) or a server error.
+	 */
+	public boolean isThrottling() {
+		return status == 429 || status >= 500;
+	}
+}
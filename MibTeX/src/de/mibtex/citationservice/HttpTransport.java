@@ -0,0 +1,325 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Sends the requests of all citation providers through one HTTP client, which
+ * reuses connections, speaks HTTP/2 where the server supports it and keeps
+ * the cookies it receives across requests. Responses are requested
+ * compressed and decompressed while they are read.
+ *
+ * Each request has a deadline for connecting and one for the whole response
+ * including its body; a response that is not read completely until then is
+ * aborted, so a hung connection cannot stall a lookup. The time until the
+ * headers arrived and until the body was read are reported to a
+ * {@link RequestListener}.
+ */
+public class HttpTransport {
+
+	public static final int CONNECT_TIMEOUT = 10;
+
+	public static final int TIMEOUT = 60;
+
+	private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "http-deadlines");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static HttpTransport defaultTransport = new HttpTransport(Duration.ofSeconds(CONNECT_TIMEOUT),
+			Duration.ofSeconds(TIMEOUT));
+
+	/**
+	 * Receives the timings of each request.
+	 */
+	@FunctionalInterface
+	public interface RequestListener {
+		/**
+		 * @param status
+		 *            the HTTP status, or -1 if no response arrived
+		 * @param headerNanos
+		 *            the time until the headers arrived
+		 * @param totalNanos
+		 *            the time until the body was read or closed
+		 * @param bytes
+		 *            the bytes of the body as transferred, i.e., compressed
+		 */
+		void requested(URI uri, int status, long headerNanos, long totalNanos, long bytes);
+	}
+
+	private final HttpClient client;
+
+	private final Duration timeout;
+
+	private volatile RequestListener listener;
+
+	/**
+	 * @param connectTimeout
+	 *            the time to establish a connection
+	 * @param timeout
+	 *            the time for a whole response
+	 */
+	public HttpTransport(Duration connectTimeout, Duration timeout) {
+		this.timeout = timeout;
+		this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).connectTimeout(connectTimeout)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.cookieHandler(new CookieManager(null, CookiePolicy.ACCEPT_ALL)).build();
+	}
+
+	public static HttpTransport getDefault() {
+		return defaultTransport;
+	}
+
+	public static void setDefault(HttpTransport transport) {
+		defaultTransport = transport;
+	}
+
+	public void setListener(RequestListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sends a GET request and returns the response as soon as its headers
+	 * arrived. The body has to be read or the response closed.
+	 *
+	 * @param headers
+	 *            names and values of additional headers
+	 */
+	public Response get(String url, String... headers) throws IOException {
+		URI uri = toUri(url);
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(timeout).header("Accept-Encoding",
+				"gzip, deflate");
+		for (int i = 0; i + 1 < headers.length; i += 2) {
+			request.header(headers[i], headers[i + 1]);
+		}
+		long start = System.nanoTime();
+		HttpResponse<InputStream> response;
+		try {
+			response = client.send(request.GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while requesting " + url);
+		} catch (IOException e) {
+			report(uri, -1, System.nanoTime() - start, System.nanoTime() - start, 0);
+			throw e;
+		}
+		return new Response(uri, response, start, System.nanoTime() - start);
+	}
+
+	/**
+	 * Creates a URI from a URL as typed in a browser, i.e., encodes spaces,
+	 * quotes and other characters that are not allowed in a URI, such as
+	 * those of a title in a query.
+	 */
+	static URI toUri(String url) {
+		StringBuilder encoded = new StringBuilder();
+		byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < bytes.length; i++) {
+			int c = bytes[i] & 0xFF;
+			boolean escape = i + 2 < bytes.length && isHex(bytes[i + 1]) && isHex(bytes[i + 2]);
+			if (c <= ' ' || c >= 0x7F || "\"<>\\^`{|}".indexOf(c) >= 0 || (c == '%' && !escape)) {
+				encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+						.append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+			} else {
+				encoded.append((char) c);
+			}
+		}
+		return URI.create(encoded.toString());
+	}
+
+	private static boolean isHex(byte b) {
+		return Character.digit(b, 16) >= 0;
+	}
+
+	private void report(URI uri, int status, long headerNanos, long totalNanos, long bytes) {
+		RequestListener current = listener;
+		if (current != null) {
+			current.requested(uri, status, headerNanos, totalNanos, bytes);
+		}
+	}
+
+	/**
+	 * A response whose body is read while it arrives.
+	 */
+	public class Response implements Closeable {
+
+		private final URI uri;
+
+		private final HttpResponse<InputStream> response;
+
+		private final long start;
+
+		private final long headerNanos;
+
+		private final InputStream raw;
+
+		private final InputStream body;
+
+		private final ScheduledFuture<?> deadline;
+
+		private long bytes = 0;
+
+		private volatile boolean expired = false;
+
+		private boolean closed = false;
+
+		private Response(URI uri, HttpResponse<InputStream> response, long start, long headerNanos)
+				throws IOException {
+			this.uri = uri;
+			this.response = response;
+			this.start = start;
+			this.headerNanos = headerNanos;
+			this.raw = response.body();
+			long remaining = timeout.toNanos() - headerNanos;
+			this.deadline = DEADLINES.schedule(this::expire, Math.max(0, remaining), TimeUnit.NANOSECONDS);
+			InputStream counted = new FilterInputStream(raw) {
+
+				@Override
+				public int read() throws IOException {
+					byte[] single = new byte[1];
+					return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					int n;
+					try {
+						n = super.read(buffer, offset, length);
+					} catch (IOException e) {
+						throw expired ? timeout() : e;
+					}
+					if (expired) {
+						throw timeout();
+					}
+					if (n > 0) {
+						bytes += n;
+					}
+					return n;
+				}
+			};
+			String encoding = response.headers().firstValue("Content-Encoding").orElse("").trim().toLowerCase();
+			try {
+				if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+					this.body = new GZIPInputStream(counted);
+				} else if (encoding.equals("deflate")) {
+					this.body = new InflaterInputStream(counted);
+				} else {
+					this.body = counted;
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		public URI getUri() {
+			return uri;
+		}
+
+		public int getStatus() {
+			return response.statusCode();
+		}
+
+		/**
+		 * Returns the charset declared in the content type, or UTF-8.
+		 */
+		public Charset getCharset() {
+			String contentType = response.headers().firstValue("Content-Type").orElse("");
+			for (String parameter : contentType.split(";")) {
+				parameter = parameter.trim();
+				if (parameter.toLowerCase().startsWith("charset=")) {
+					try {
+						return Charset.forName(parameter.substring(8).replace("\"", ""));
+					} catch (IllegalArgumentException e) {
+						break;
+					}
+				}
+			}
+			return StandardCharsets.UTF_8;
+		}
+
+		/**
+		 * Returns the decompressed body.
+		 */
+		public InputStream getBody() {
+			return body;
+		}
+
+		public Reader getReader() {
+			return new InputStreamReader(body, getCharset());
+		}
+
+		/**
+		 * Reads the whole body and closes the response.
+		 */
+		public String readString() throws IOException {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				body.transferTo(out);
+				return out.toString(getCharset());
+			} finally {
+				close();
+			}
+		}
+
+		private HttpTimeoutException timeout() {
+			return new HttpTimeoutException("Response of " + uri + " took longer than " + timeout.getSeconds()
+					+ " seconds");
+		}
+
+		private void expire() {
+			expired = true;
+			try {
+				// makes a blocked read return
+				raw.close();
+			} catch (IOException e) {
+				// the read reports the timeout
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+			}
+			deadline.cancel(false);
+			try {
+				raw.close();
+			} finally {
+				report(uri, getStatus(), headerNanos, System.nanoTime() - start, bytes);
+			}
+		}
+	}
+}
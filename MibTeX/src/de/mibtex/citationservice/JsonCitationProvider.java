@@ -0,0 +1,120 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Looks up citations by DOI from an API that answers with JSON, such as
+ * Crossref or OpenCitations. The citations are read from the first
+ * occurrence of a given field in the response. Responses are cached in the
+ * {@link ResponseCache} of {@link ScholarCitations} if one is set.
+ */
+public class JsonCitationProvider implements CitationProvider {
+
+	public static final String CROSSREF_HOST = "https://api.crossref.org";
+
+	public static final String OPENCITATIONS_HOST = "https://opencitations.net";
+
+	private static final String USER_AGENT = "MibTeX (https://github.com/tthuem/MibTeX)";
+
+	private final String name;
+
+	private final String url;
+
+	private final Pattern field;
+
+	/**
+	 * @param name
+	 *            the name of the provider
+	 * @param url
+	 *            the URL of the API, in which {doi} is replaced by the DOI of
+	 *            an entry
+	 * @param field
+	 *            the name of the field with the citations, whose value is a
+	 *            number or a string with a number
+	 */
+	public JsonCitationProvider(String name, String url, String field) {
+		this.name = name;
+		this.url = url;
+		this.field = Pattern.compile("\"" + Pattern.quote(field) + "\"\\s*:\\s*\"?(\\d+)");
+	}
+
+	/**
+	 * Creates a provider for the works API of Crossref.
+	 */
+	public static JsonCitationProvider crossref(String host) {
+		return new JsonCitationProvider("crossref", host + "/works/{doi}", "is-referenced-by-count");
+	}
+
+	/**
+	 * Creates a provider for the COCI index of OpenCitations.
+	 */
+	public static JsonCitationProvider openCitations(String host) {
+		return new JsonCitationProvider("opencitations", host + "/index/coci/api/v1/citation-count/{doi}", "count");
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getCitations(CitationEntry entry) throws IOException {
+		String doi = entry.getDoi();
+		if (doi == null) {
+			return CitationEntry.NOT_IN_CITATION_SERVICE;
+		}
+		String query = url.replace("{doi}", encode(doi));
+		ResponseCache cache = ScholarCitations.getCache();
+		String json = cache == null ? null : cache.get(query);
+		if (json == null) {
+			try (HttpTransport.Response response = HttpTransport.getDefault().get(query, "User-Agent", USER_AGENT,
+					"Accept", "application/json")) {
+				int status = response.getStatus();
+				if (status == 404) {
+					return CitationEntry.NOT_FOUND;
+				}
+				if (status == 429) {
+					System.out.println(name + " refuses requests for now");
+					return CitationEntry.ROBOT;
+				}
+				if (status >= 400) {
+					throw new HttpStatusException(status, query);
+				}
+				json = response.readString();
+			}
+			if (cache != null) {
+				cache.put(query, json);
+			}
+		}
+		Matcher matcher = field.matcher(json);
+		return matcher.find() ? Integer.parseInt(matcher.group(1)) : CitationEntry.NOT_FOUND;
+	}
+
+	/**
+	 * Percent-encodes a DOI for the path of a URL. Only unreserved characters
+	 * and the / after the prefix are kept, as DOIs may contain characters such
+	 * as # or ? that would otherwise start a fragment or a query.
+	 */
+	static String encode(String doi) {
+		StringBuilder encoded = new StringBuilder();
+		for (byte b : doi.getBytes(StandardCharsets.UTF_8)) {
+			int c = b & 0xFF;
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "-._~/".indexOf(c) >= 0) {
+				encoded.append((char) c);
+			} else {
+				encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+						.append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+			}
+		}
+		return encoded.toString();
+	}
+}
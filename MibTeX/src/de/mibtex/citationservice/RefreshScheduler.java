@@ -0,0 +1,349 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Decides which entry the citation service refreshes next. All entries wait
+ * in a min-heap ordered by the time at which they are due, so the next entry
+ * is found in O(log n). Entries whose citations were never fetched are due
+ * immediately. Otherwise, an entry is due one refresh interval after its last
+ * lookup; the interval doubles with each failed lookup in a row (NOT_FOUND or
+ * PROBLEM_OCCURED) and shrinks for entries that gain citations quickly. No
+ * entry is refreshed before it is due; until then, the service waits in
+ * {@link #awaitDue()}.
+ *
+ * The failures, the citations gained per day and the time of the last lookup
+ * are kept in a state file, so they survive restarts. Each lookup appends a
+ * line to the file, of which the last line of each key wins, so that the cost
+ * of a lookup does not grow with the library. The file is rewritten when it
+ * holds as many appended lines as entries.
+ */
+public class RefreshScheduler {
+
+	public static final long DAY = 24L * 60 * 60 * 1000;
+
+	/**
+	 * Number of failures after which the interval no longer doubles
+	 */
+	private static final int MAX_BACKOFF = 6;
+
+	private final File stateFile;
+
+	private final long interval;
+
+	private final double velocityWeight;
+
+	private final ServiceClock clock;
+
+	private final Map<String, State> states = new HashMap<>();
+
+	/**
+	 * Number of lines appended to the state file since it was rewritten
+	 */
+	private int appended = 0;
+
+	private final PriorityQueue<State> queue = new PriorityQueue<>(
+			Comparator.comparingLong((State state) -> state.due).thenComparing(state -> state.key));
+
+	/**
+	 * @param stateFile
+	 *            file to persist the state of the scheduler
+	 * @param interval
+	 *            time in milliseconds after which an entry is refreshed
+	 * @param velocityWeight
+	 *            how much faster an entry is refreshed per citation it gained
+	 *            per day; an entry is refreshed after interval / (1 +
+	 *            velocityWeight * velocity)
+	 */
+	public RefreshScheduler(File stateFile, long interval, double velocityWeight) {
+		this(stateFile, interval, velocityWeight, ServiceClock.SYSTEM);
+	}
+
+	/**
+	 * @param clock
+	 *            the clock that gives the time of each lookup
+	 */
+	public RefreshScheduler(File stateFile, long interval, double velocityWeight, ServiceClock clock) {
+		this.stateFile = stateFile;
+		this.interval = interval;
+		this.velocityWeight = velocityWeight;
+		this.clock = clock;
+	}
+
+	/**
+	 * Schedules the given entries, using the persisted state of entries that
+	 * were scheduled before. The state of other entries is dropped.
+	 */
+	public synchronized void init(Collection<CitationEntry> entries) {
+		Map<String, State> persisted = load();
+		states.clear();
+		queue.clear();
+		for (CitationEntry entry : entries) {
+			State state = persisted.getOrDefault(entry.getKey(), new State(entry.getKey()));
+			state.due = due(state, entry);
+			states.put(state.key, state);
+			queue.add(state);
+		}
+		if (!persisted.isEmpty()) {
+			// drops the appended lines and the state of removed entries
+			save();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Schedules entries that were added since the last call and drops entries
+	 * that were removed, such as after the BibTeX file changed. The state of
+	 * all other entries is kept, also of those being refreshed.
+	 */
+	public synchronized void update(Collection<CitationEntry> entries) {
+		Set<String> keys = new HashSet<>();
+		for (CitationEntry entry : entries) {
+			keys.add(entry.getKey());
+			if (!states.containsKey(entry.getKey())) {
+				State state = new State(entry.getKey());
+				state.due = due(state, entry);
+				states.put(state.key, state);
+				queue.add(state);
+			}
+		}
+		for (Iterator<State> it = states.values().iterator(); it.hasNext();) {
+			State state = it.next();
+			if (!keys.contains(state.key)) {
+				it.remove();
+				queue.remove(state);
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Removes the entry that is due first from the schedule. It is scheduled
+	 * again by {@link #record(CitationEntry, CitationEntry, int)} or
+	 * {@link #retry(String)}.
+	 *
+	 * @return the key of the entry or null if no entry is due yet or all
+	 *         entries are being refreshed
+	 */
+	public synchronized String next() {
+		State state = queue.peek();
+		if (state == null || state.due > clock.millis()) {
+			return null;
+		}
+		return queue.poll().key;
+	}
+
+	/**
+	 * Blocks until the first entry is due or the schedule changed, such as
+	 * when an entry was added or scheduled again. Callers check
+	 * {@link #next()} again afterwards.
+	 */
+	public synchronized void awaitDue() throws InterruptedException {
+		State state = queue.peek();
+		long now = clock.millis();
+		if (state == null || state.due > now) {
+			// 0 waits until the schedule changes
+			clock.await(this, state == null ? 0 : state.due - now);
+		}
+	}
+
+	/**
+	 * Records the result of a lookup and schedules the entry again.
+	 *
+	 * @param before
+	 *            the entry before the lookup
+	 * @param after
+	 *            the entry after the lookup
+	 * @param result
+	 *            the citations or the status code returned by the provider,
+	 *            which tells a failed lookup apart even if the entry kept its
+	 *            old citations
+	 */
+	public synchronized void record(CitationEntry before, CitationEntry after, int result) {
+		State state = states.get(after.getKey());
+		if (state == null) {
+			return;
+		}
+		if (result == CitationEntry.ROBOT) {
+			// not looked up, so it stays due
+			queue.add(state);
+			notifyAll();
+			return;
+		}
+		long now = clock.millis();
+		if (result == CitationEntry.NOT_FOUND || result == CitationEntry.PROBLEM_OCCURED) {
+			state.failures++;
+		} else if (result >= 0) {
+			state.failures = 0;
+			if (before.getCitations() >= 0 && before.getLastUpdate() > 0 && now > before.getLastUpdate()) {
+				double days = (double) (now - before.getLastUpdate()) / DAY;
+				state.velocity = Math.max(0, result - before.getCitations()) / days;
+			}
+		}
+		state.lastAttempt = now;
+		state.due = due(state, after);
+		queue.add(state);
+		notifyAll();
+		if (appended >= states.size()) {
+			save();
+		} else {
+			append(state);
+		}
+	}
+
+	/**
+	 * Schedules an entry again that was taken by {@link #next()} but could not
+	 * be looked up, such as because the store could not be read. Its state and
+	 * time at which it is due remain unchanged.
+	 */
+	public synchronized void retry(String key) {
+		State state = states.get(key);
+		if (state != null && !queue.contains(state)) {
+			queue.add(state);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the number of entries that wait in the schedule, without those
+	 * being refreshed.
+	 */
+	public synchronized int getScheduled() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the number of scheduled entries that were due before the given
+	 * time, i.e., how far the service lags behind the refresh cycle.
+	 */
+	public synchronized int getOverdue(long time) {
+		int overdue = 0;
+		for (State state : queue) {
+			if (state.due <= time) {
+				overdue++;
+			}
+		}
+		return overdue;
+	}
+
+	/**
+	 * Computes the time at which an entry is due; the entry with the smallest
+	 * value is refreshed first.
+	 */
+	protected long due(State state, CitationEntry entry) {
+		if (entry.getCitations() == CitationEntry.UNINITIALIZED && state.lastAttempt == 0) {
+			return 0;
+		}
+		long last = Math.max(entry.getLastUpdate(), state.lastAttempt);
+		double factor = (1 << Math.min(state.failures, MAX_BACKOFF)) / (1 + velocityWeight * state.velocity);
+		return last + (long) (interval * factor);
+	}
+
+	private Map<String, State> load() {
+		Map<String, State> persisted = new HashMap<>();
+		if (!stateFile.exists()) {
+			return persisted;
+		}
+		try (BufferedReader br = new BufferedReader(new FileReader(stateFile))) {
+			for (String line; (line = br.readLine()) != null;) {
+				try {
+					if (!line.endsWith(";")) {
+						// the last line is incomplete after a crash
+						throw new IllegalArgumentException(line);
+					}
+					String[] str = line.split(";");
+					State state = new State(str[0].replace("\"", ""));
+					state.failures = Integer.parseInt(str[1]);
+					state.velocity = Double.parseDouble(str[2]);
+					state.lastAttempt = Long.parseLong(str[3]);
+					persisted.put(state.key, state);
+				} catch (RuntimeException e) {
+					System.out.println("Skipping malformed line in " + stateFile.getName() + ": " + line);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("IOException for " + stateFile.getAbsolutePath());
+		}
+		return persisted;
+	}
+
+	private void append(State state) {
+		try (Writer out = new BufferedWriter(new FileWriter(stateFile, true))) {
+			out.append(getLine(state));
+			appended++;
+		} catch (IOException e) {
+			System.out.println("IOException for " + stateFile.getAbsolutePath());
+		}
+	}
+
+	private void save() {
+		File temporary = new File(stateFile.getPath() + ".tmp");
+		try {
+			try (Writer out = new BufferedWriter(new FileWriter(temporary))) {
+				for (State state : states.values()) {
+					if (state.lastAttempt > 0) {
+						out.append(getLine(state));
+					}
+				}
+			}
+			Files.move(temporary.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			appended = 0;
+		} catch (IOException e) {
+			System.out.println("IOException for " + stateFile.getAbsolutePath());
+		}
+	}
+
+	private static String getLine(State state) {
+		return "\"" + state.key + "\";" + state.failures + ";" + state.velocity + ";" + state.lastAttempt + ";"
+				+ System.lineSeparator();
+	}
+
+	/**
+	 * The scheduling state of an entry.
+	 */
+	protected static class State {
+
+		final String key;
+
+		/**
+		 * Number of failed lookups in a row
+		 */
+		int failures = 0;
+
+		/**
+		 * Citations gained per day between the last two lookups
+		 */
+		double velocity = 0;
+
+		long lastAttempt = 0;
+
+		long due = 0;
+
+		State(String key) {
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures how fast and how accurately the citations are read from recorded
+ * Google Scholar pages, without sending requests. A fixture is the directory
+ * of a {@link ResponseCache} together with a file expected.txt, which holds
+ * the expected citations and the query of each page, separated by a tab.
+ *
+ * In record mode, the pages of the titles of a citations.csv that are not
+ * yet in the fixture are fetched at the rate of the citation service, and the
+ * citations currently found on each page without an expectation are written
+ * to expected.txt. Expectations can be corrected by hand afterwards.
+ *
+ * In replay mode, all pages are parsed by the {@link ScholarPageParser} and
+ * the closest title is selected as by {@link ScholarCitations}, first to warm
+ * up and then to measure. The pages per second, the bytes allocated per page
+ * and the share of pages with the expected citations are printed; the exit
+ * code is 1 if a page did not give the expected citations, so that a replay
+ * can be run as a regression test.
+ */
+public class ReplayBenchmark {
+
+	public static final String FIXTURE = "fixtures/scholar";
+
+	public static final String EXPECTED = "expected.txt";
+
+	private static final String QUERY = "&q=";
+
+	/**
+	 * Example arguments
+	 *
+	 * ReplayBenchmark record fixtures/scholar "C:\\Users\\tthuem\\citations.csv"
+	 *
+	 * ReplayBenchmark fixtures/scholar 20
+	 *
+	 * @param args
+	 *            either record, the fixture directory, the citations.csv whose
+	 *            titles are fetched (default: none) and the maximal number of
+	 *            requests (default: 10), or the fixture directory (default:
+	 *            fixtures/scholar) and the number of measured rounds over all
+	 *            pages (default: 20)
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length > 0 && args[0].equals("record")) {
+			File fixture = new File(args.length > 1 ? args[1] : FIXTURE);
+			record(fixture, args.length > 2 ? new File(args[2]) : null,
+					args.length > 3 ? Integer.parseInt(args[3]) : 10);
+		} else {
+			File fixture = new File(args.length > 0 ? args[0] : FIXTURE);
+			boolean passed = replay(fixture, args.length > 1 ? Integer.parseInt(args[1]) : 20);
+			System.exit(passed ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Fetches the pages of titles that are not yet recorded and writes the
+	 * expectations of all pages that have none.
+	 */
+	public static void record(File fixture, File citationsFile, int maxRequests)
+			throws IOException, InterruptedException {
+		ResponseCache cache = new ResponseCache(fixture, Long.MAX_VALUE, Long.MAX_VALUE);
+		if (citationsFile != null) {
+			ResponseCache previous = ScholarCitations.getCache();
+			ScholarCitations.setCache(cache);
+			TokenBucket bucket = new TokenBucket(60.0 / ScholarService.MIN_DELAY, 1,
+					ScholarService.EXTRA_DELAY * 1000);
+			int requests = 0;
+			try {
+				for (CitationEntry entry : CitationStore.read(citationsFile)) {
+					String url = ScholarProvider.URL
+							+ ResponseCache.normalize(entry.getTitle()).replace(" ", "%20");
+					if (cache.get(url) != null) {
+						continue;
+					}
+					if (requests++ >= maxRequests) {
+						break;
+					}
+					bucket.acquire();
+					if (ScholarCitations.getCitations(entry.getTitle()) == CitationEntry.ROBOT) {
+						break;
+					}
+				}
+			} finally {
+				ScholarCitations.setCache(previous);
+			}
+		}
+		Map<String, Integer> expected = readExpected(fixture);
+		int added = 0;
+		for (ResponseCache.CachedPage page : cache.getPages()) {
+			String query = getQuery(page.url);
+			if (query != null && !expected.containsKey(query)) {
+				expected.put(query, ScholarCitations.parse(page.html, query));
+				added++;
+			}
+		}
+		File file = new File(fixture, EXPECTED);
+		fixture.mkdirs();
+		try (Writer out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+				out.append(entry.getValue() + "\t" + entry.getKey() + System.lineSeparator());
+			}
+		}
+		System.out.println("Added " + added + " expectations to " + file.getAbsolutePath());
+	}
+
+	/**
+	 * Parses all recorded pages and prints the throughput, the allocation and
+	 * the accuracy.
+	 *
+	 * @param rounds
+	 *            the number of times all pages are parsed for warming up and
+	 *            again for measuring
+	 * @return whether all pages gave the expected citations
+	 */
+	public static boolean replay(File fixture, int rounds) {
+		Map<String, Integer> expected = readExpected(fixture);
+		List<String> queries = new ArrayList<>();
+		List<String> pages = new ArrayList<>();
+		ResponseCache cache = new ResponseCache(fixture, Long.MAX_VALUE, Long.MAX_VALUE);
+		for (ResponseCache.CachedPage page : cache.getPages()) {
+			String query = getQuery(page.url);
+			if (query != null) {
+				queries.add(query);
+				pages.add(page.html);
+			}
+		}
+		if (pages.isEmpty()) {
+			System.out.println("No recorded pages in " + fixture.getAbsolutePath());
+			return false;
+		}
+
+		int correct = 0;
+		int checked = 0;
+		for (int i = 0; i < pages.size(); i++) {
+			Integer citations = expected.get(queries.get(i));
+			if (citations != null) {
+				checked++;
+				int found = ScholarCitations.parse(pages.get(i), queries.get(i));
+				if (found == citations) {
+					correct++;
+				} else {
+					System.out.println("Expected " + citations + " but found " + found + " for " + queries.get(i));
+				}
+			}
+		}
+
+		long checksum = 0;
+		for (int round = 0; round < rounds; round++) {
+			checksum += parseAll(queries, pages);
+		}
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+				? (com.sun.management.ThreadMXBean) threads
+				: null;
+		long thread = Thread.currentThread().getId();
+		long allocatedBefore = allocation == null ? 0 : allocation.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			checksum += parseAll(queries, pages);
+		}
+		long nanos = System.nanoTime() - start;
+		long allocated = allocation == null ? -1 : allocation.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+		long parsed = (long) rounds * pages.size();
+		System.out.println(String.format(Locale.ENGLISH, "%d pages parsed %d times (checksum %d)", pages.size(),
+				rounds, checksum));
+		System.out.println(String.format(Locale.ENGLISH, "%.0f pages per second, %.1f microseconds per page",
+				parsed / (nanos / 1e9), nanos / 1e3 / Math.max(1, parsed)));
+		System.out.println(allocated < 0 ? "Allocation not measured by this JVM"
+				: String.format(Locale.ENGLISH, "%.0f bytes allocated per page", (double) allocated / parsed));
+		System.out.println(String.format(Locale.ENGLISH, "%d of %d expectations met (%.1f%%), %d pages without one",
+				correct, checked, checked == 0 ? 0 : 100.0 * correct / checked, pages.size() - checked));
+		return correct == checked;
+	}
+
+	private static long parseAll(List<String> queries, List<String> pages) {
+		long sum = 0;
+		for (int i = 0; i < pages.size(); i++) {
+			sum += ScholarCitations.parse(pages.get(i), queries.get(i));
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the title searched for by a Google Scholar URL, or null for
+	 * other pages, such as of Crossref.
+	 */
+	private static String getQuery(String url) {
+		int query = url.indexOf(QUERY);
+		return query < 0 ? null : url.substring(query + QUERY.length()).replace("%20", " ");
+	}
+
+	private static Map<String, Integer> readExpected(File fixture) {
+		Map<String, Integer> expected = new LinkedHashMap<>();
+		File file = new File(fixture, EXPECTED);
+		if (!file.exists()) {
+			return expected;
+		}
+		try (BufferedReader br = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			for (String line; (line = br.readLine()) != null;) {
+				String[] str = line.split("\t", 2);
+				try {
+					expected.put(str[1], Integer.parseInt(str[0]));
+				} catch (RuntimeException e) {
+					System.out.println("Skipping malformed line in " + file.getName() + ": " + line);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("IOException for " + file.getAbsolutePath());
+		}
+		return expected;
+	}
+}
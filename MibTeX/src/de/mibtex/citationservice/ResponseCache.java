@@ -0,0 +1,218 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An on-disk cache of the pages fetched by the citation service. Each page is
+ * stored gzipped in a file named after the SHA-256 hash of its URL; the first
+ * line of the file holds the time at which the page was fetched and the URL,
+ * so that cached pages can be parsed again without sending requests.
+ *
+ * Pages older than the time to live are not returned. When the files exceed
+ * the maximal size, the least recently used pages are deleted; the last
+ * modification time of a file is its last use.
+ */
+public class ResponseCache {
+
+	private static final String SUFFIX = ".html.gz";
+
+	private final File dir;
+
+	private final long timeToLive;
+
+	private final long maxSize;
+
+	/**
+	 * Sizes of the cached files by name, least recently used first
+	 */
+	private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long size = 0;
+
+	/**
+	 * @param dir
+	 *            directory of the cached pages
+	 * @param timeToLive
+	 *            time in milliseconds after which a page is fetched again
+	 * @param maxSize
+	 *            maximal size in bytes of all cached pages
+	 */
+	public ResponseCache(File dir, long timeToLive, long maxSize) {
+		this.dir = dir;
+		this.timeToLive = timeToLive;
+		this.maxSize = maxSize;
+		File[] cached = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+		if (cached != null) {
+			Arrays.sort(cached, Comparator.comparingLong(File::lastModified));
+			for (File file : cached) {
+				files.put(file.getName(), file.length());
+				size += file.length();
+			}
+		}
+	}
+
+	/**
+	 * Normalizes a query, such that queries that only differ in case or
+	 * whitespace share a cached page.
+	 */
+	public static String normalize(String query) {
+		return query.trim().replaceAll("\\s+", " ").toLowerCase();
+	}
+
+	/**
+	 * Returns the cached page of a URL.
+	 *
+	 * @return the page or null if it is not cached or expired
+	 */
+	public synchronized String get(String url) {
+		String name = getName(url);
+		if (!files.containsKey(name)) {
+			return null;
+		}
+		File file = new File(dir, name);
+		try {
+			CachedPage page = read(file);
+			if (!page.url.equals(url) || System.currentTimeMillis() - page.fetched > timeToLive) {
+				remove(name);
+				return null;
+			}
+			file.setLastModified(System.currentTimeMillis());
+			return page.html;
+		} catch (IOException | RuntimeException e) {
+			System.out.println("IOException for " + file.getAbsolutePath());
+			remove(name);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the page of a URL.
+	 */
+	public synchronized void put(String url, String html) {
+		String name = getName(url);
+		File file = new File(dir, name);
+		File temporary = new File(dir, name + ".tmp");
+		dir.mkdirs();
+		try {
+			try (Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(temporary)),
+					StandardCharsets.UTF_8)) {
+				out.write(System.currentTimeMillis() + "\t" + url + "\n");
+				out.write(html);
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("IOException for " + file.getAbsolutePath());
+			temporary.delete();
+			return;
+		}
+		Long old = files.put(name, file.length());
+		size += file.length() - (old == null ? 0 : old);
+		Iterator<Map.Entry<String, Long>> lru = files.entrySet().iterator();
+		while (size > maxSize && lru.hasNext()) {
+			Map.Entry<String, Long> next = lru.next();
+			if (next.getKey().equals(name)) {
+				break;
+			}
+			new File(dir, next.getKey()).delete();
+			size -= next.getValue();
+			lru.remove();
+		}
+	}
+
+	/**
+	 * Returns all cached pages, including expired ones, without changing
+	 * their last use.
+	 */
+	public synchronized List<CachedPage> getPages() {
+		List<CachedPage> pages = new ArrayList<>();
+		for (String name : new ArrayList<>(files.keySet())) {
+			File file = new File(dir, name);
+			try {
+				pages.add(read(file));
+			} catch (IOException | RuntimeException e) {
+				System.out.println("IOException for " + file.getAbsolutePath());
+			}
+		}
+		return pages;
+	}
+
+	private void remove(String name) {
+		Long length = files.remove(name);
+		if (length != null) {
+			size -= length;
+		}
+		new File(dir, name).delete();
+	}
+
+	private static CachedPage read(File file) throws IOException {
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+			String[] header = in.readLine().split("\t", 2);
+			StringBuilder html = new StringBuilder();
+			char[] buffer = new char[8192];
+			for (int n; (n = in.read(buffer)) != -1;) {
+				html.append(buffer, 0, n);
+			}
+			return new CachedPage(header[1], Long.parseLong(header[0]), html.toString());
+		}
+	}
+
+	private static String getName(String url) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder();
+			for (byte b : hash) {
+				name.append(String.format("%02x", b));
+			}
+			return name.append(SUFFIX).toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A page read from the cache.
+	 */
+	public static class CachedPage {
+
+		public final String url;
+
+		public final long fetched;
+
+		public final String html;
+
+		CachedPage(String url, long fetched, String html) {
+			this.url = url;
+			this.fetched = fetched;
+			this.html = html;
+		}
+	}
+}
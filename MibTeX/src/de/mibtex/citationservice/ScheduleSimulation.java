@@ -0,0 +1,231 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Runs the citation service on a {@link SimulatedClock} against a stand-in
+ * provider, so that the scheduling and rate limiting of weeks can be compared
+ * in seconds before they are deployed.
+ *
+ * The stand-in provider runs in the same process. Each entry has a number of
+ * citations that grows by its own velocity; a few papers gain citations
+ * quickly, most slowly, and some are never found. Like Google Scholar, the
+ * provider answers with a robot page to all requests while more than a given
+ * number of requests were sent within the last hour.
+ *
+ * For each simulated day, the lookups, robot pages and the rate are printed,
+ * as well as how old and how far behind the citations are that the service
+ * knows.
+ */
+public class ScheduleSimulation {
+
+	private static final long HOUR = 60 * 60 * 1000L;
+
+	/**
+	 * Runs a simulation in a temporary directory, which is deleted afterwards.
+	 *
+	 * @param args
+	 *            the days to simulate (default: 30), the number of entries
+	 *            (default: 500), the threads (default: 1), the initial and the
+	 *            highest rate in requests per hour (default: as the citation
+	 *            service), the refresh days and the velocity weight (default:
+	 *            as the citation service) and the requests per hour above which
+	 *            the provider detects the robot (default: 6)
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int days = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+		int entries = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		double rate = args.length > 3 ? Double.parseDouble(args[3]) : 60.0 / ScholarService.MIN_DELAY;
+		double maxRate = args.length > 4 ? Double.parseDouble(args[4]) : ScholarService.MAX_RATE;
+		int refreshDays = args.length > 5 ? Integer.parseInt(args[5]) : ScholarService.REFRESH_DAYS;
+		double velocityWeight = args.length > 6 ? Double.parseDouble(args[6]) : ScholarService.VELOCITY_WEIGHT;
+		int robotLimit = args.length > 7 ? Integer.parseInt(args[7]) : 6;
+
+		File dir = Files.createTempDirectory("mibtex-simulation").toFile();
+		File citationsFile = new File(dir, "citations.csv");
+		File problemsFile = new File(dir, "problems.csv");
+		List<CitationEntry> initial = new ArrayList<>();
+		for (int i = 0; i < entries; i++) {
+			initial.add(new CitationEntry("entry" + i, "Title of entry " + i));
+		}
+		CitationStore.write(citationsFile, initial);
+		problemsFile.createNewFile();
+
+		long start = System.currentTimeMillis();
+		SimulatedClock clock = new SimulatedClock(threads, start);
+		StandInProvider provider = new StandInProvider(clock, entries, robotLimit);
+		AdaptiveRateController controller = new AdaptiveRateController(
+				new File(dir, AdaptiveRateController.FILE_NAME),
+				new TokenBucket(rate, 1, ScholarService.EXTRA_DELAY * 1000, clock), ScholarService.MIN_RATE,
+				Math.max(maxRate, rate), ScholarService.MIN_ROBOT * 60 * 1000L);
+		RefreshScheduler scheduler = new RefreshScheduler(new File(dir, "schedule.csv"),
+				refreshDays * RefreshScheduler.DAY, velocityWeight, clock);
+		ScholarService service = new ScholarService(citationsFile, problemsFile, controller, threads, scheduler,
+				provider, 0);
+
+		PrintStream out = System.out;
+		System.out.println("Simulating " + days + " days of " + entries + " entries in " + dir.getAbsolutePath());
+		// the service reports each lookup
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		long realStart = System.nanoTime();
+		try {
+			service.start();
+			long lookups = 0;
+			long robots = 0;
+			for (int day = 1; day <= days; day++) {
+				clock.advanceTo(start + day * RefreshScheduler.DAY);
+				CitationMetrics metrics = service.getMetrics();
+				out.println(String.format(Locale.ENGLISH,
+						"day %3d: %4d lookups, %3d robot pages, rate %5.2f/h, %s", day,
+						metrics.getRequests() - lookups, metrics.getRobots() - robots, controller.getRate(),
+						provider.getStaleness()));
+				lookups = metrics.getRequests();
+				robots = metrics.getRobots();
+			}
+			service.shutdown();
+			service.join();
+		} finally {
+			System.setOut(out);
+			delete(dir);
+		}
+		long realMillis = (System.nanoTime() - realStart) / 1000000;
+		CitationMetrics metrics = service.getMetrics();
+		System.out.println(String.format(Locale.ENGLISH,
+				"Simulated %d days in %.1f seconds: %d lookups (%.1f per day), %d found, %d robot pages, %s",
+				days, realMillis / 1000.0, metrics.getRequests(), (double) metrics.getRequests() / days,
+				metrics.getFound(), metrics.getRobots(), provider.getStaleness()));
+	}
+
+	/**
+	 * Deletes the files of a simulation and their directory.
+	 */
+	private static void delete(File dir) {
+		try (Stream<Path> files = Files.walk(dir.toPath())) {
+			// the files before their directory
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		} catch (IOException e) {
+			System.out.println("IOException for " + dir.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * A provider whose citations grow with the time of the simulated clock.
+	 */
+	private static class StandInProvider implements CitationProvider {
+
+		private final ServiceClock clock;
+
+		private final long start;
+
+		private final int robotLimit;
+
+		private final int[] base;
+
+		/**
+		 * Citations gained per day, or a negative value if not found
+		 */
+		private final double[] velocity;
+
+		private final Map<String, Integer> indices = new HashMap<>();
+
+		private final long[] lastLookup;
+
+		private final int[] lastCitations;
+
+		private final Deque<Long> lastHour = new ArrayDeque<>();
+
+		StandInProvider(ServiceClock clock, int entries, int robotLimit) {
+			this.clock = clock;
+			this.start = clock.millis();
+			this.robotLimit = robotLimit;
+			this.base = new int[entries];
+			this.velocity = new double[entries];
+			this.lastLookup = new long[entries];
+			this.lastCitations = new int[entries];
+			// the same entries in each simulation
+			Random random = new Random(entries);
+			for (int i = 0; i < entries; i++) {
+				indices.put("entry" + i, i);
+				base[i] = random.nextInt(200);
+				double kind = random.nextDouble();
+				velocity[i] = kind < 0.05 ? -1
+						: kind < 0.25 ? 0.5 + 4.5 * random.nextDouble() : 0.05 * random.nextDouble();
+			}
+		}
+
+		@Override
+		public String getName() {
+			return "stand-in";
+		}
+
+		@Override
+		public synchronized int getCitations(CitationEntry entry) {
+			long now = clock.millis();
+			while (!lastHour.isEmpty() && lastHour.peekFirst() <= now - HOUR) {
+				lastHour.removeFirst();
+			}
+			lastHour.addLast(now);
+			if (lastHour.size() > robotLimit) {
+				return CitationEntry.ROBOT;
+			}
+			Integer i = indices.get(entry.getKey());
+			if (i == null || velocity[i] < 0) {
+				return CitationEntry.NOT_FOUND;
+			}
+			lastLookup[i] = now;
+			lastCitations[i] = getTruth(i, now);
+			return lastCitations[i];
+		}
+
+		private int getTruth(int i, long time) {
+			return base[i] + (int) (velocity[i] * (time - start) / RefreshScheduler.DAY);
+		}
+
+		/**
+		 * Describes how old and how far behind the citations found so far are.
+		 */
+		synchronized String getStaleness() {
+			long now = clock.millis();
+			int never = 0;
+			int found = 0;
+			double age = 0;
+			long missed = 0;
+			for (int i = 0; i < base.length; i++) {
+				if (velocity[i] < 0) {
+					continue;
+				}
+				if (lastLookup[i] == 0) {
+					never++;
+				} else {
+					found++;
+					age += (double) (now - lastLookup[i]) / RefreshScheduler.DAY;
+					missed += getTruth(i, now) - lastCitations[i];
+				}
+			}
+			return String.format(Locale.ENGLISH, "%d not looked up yet, mean age %.1f days, %.2f citations missed",
+					never, found == 0 ? 0 : age / found, found == 0 ? 0 : (double) missed / found);
+		}
+	}
+}
@@ -8,119 +8,140 @@ package de.mibtex.citationservice;
 
 import de.mibtex.Levenshtein;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * A class to read the number of citations from Google Scholar.
+ * A class to read the number of citations from Google Scholar. Pages are
+ * requested through the {@link HttpTransport} and parsed by a
+ * {@link ScholarPageParser} while they arrive. They
+ * are taken from a {@link ResponseCache} if one is set, and the main method
+ * parses all cached pages again without sending requests. Other sources of citations
+ * implement {@link CitationProvider}.
  *
  * @author Thomas Thuem, Christopher Sontag
  */
 public class ScholarCitations {
 
-	private final static String SCHOLAR_URL = "https://scholar.google.com/scholar?hl=en&q=";
-	private static Pattern entryPattern = Pattern.compile(
-			"<div class=\\\"gs_r gs_or gs_scl.*?>(.*?)<\\/svg><\\/a><\\/div><\\/div><\\/div>",
-			Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.MULTILINE);
-
-	private static String regexTitle = "<h3 class=\\\"gs_rt\\\" ontouchstart=\\\"gs_evt_dsp\\(event\\)\\\">.*?<a.*?>(.*?)<\\/a><\\/h3>";
-	private static String regexCitation = ".*?>Cited by (\\d*)";
-	
-	private static Pattern citationsPattern = Pattern.compile(regexTitle + regexCitation,
-			Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.MULTILINE);
-	private static Pattern titlePattern = Pattern.compile(regexTitle,
-			Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.MULTILINE);
 	private static float levenshteinParameter = 10; // This factor describes how much a title is allowed to change
 													// (Standard: 10%)
 
-	public static int getCitations(String title) throws IOException {
-		String url = SCHOLAR_URL + title.replace(" ", "%20");
-		String html = toString(connect(new URL(url)));
+	private static final Pattern NON_WORD = Pattern.compile("\\W");
 
-		if (html.contains("<h1>Please show you&#39;re not a robot</h1>")) {
-			System.out.println("Scholar has detected the robot");
-			return CitationEntry.ROBOT;
-		}
+	private static final String USER_AGENT = "Mozilla/6.0 (Windows NT 5.1; en-US; rv:x.x.x) Gecko/20041109 Firefox/x.x";
 
-		Matcher entryMatcher = entryPattern.matcher(html.replace("\n", ""));
+	private static ResponseCache cache;
 
-		// Find minimal Distance between titles found and the original title
-		int bestElementCitations = -1;
-		int bestElementDistance = 99999;
+	public static void setCache(ResponseCache cache) {
+		ScholarCitations.cache = cache;
+	}
+
+	public static ResponseCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Parses all pages of a response cache again and prints the citations
+	 * found for each query.
+	 *
+	 * @param args
+	 *            the directory of the cache
+	 */
+	public static void main(String[] args) {
+		ResponseCache replay = new ResponseCache(new File(args.length == 0 ? "cache" : args[0]), Long.MAX_VALUE,
+				Long.MAX_VALUE);
+		for (ResponseCache.CachedPage page : replay.getPages()) {
+			int query = page.url.indexOf("&q=");
+			if (query >= 0) {
+				String title = page.url.substring(query + 3).replace("%20", " ");
+				System.out.println(parse(page.html, title) + "\t" + title);
+			}
+		}
+	}
+
+	public static int getCitations(String title) throws IOException {
+		return getCitations(ScholarProvider.URL, title);
+	}
 
-		while (entryMatcher.find()) {
-			Matcher citationsMatcher = citationsPattern.matcher(entryMatcher.group());
-			if (citationsMatcher.find()) {
-				String titleOutline = citationsMatcher.group(1);
-				int citations = Integer.parseInt(citationsMatcher.group(2));
-
-				// Remove HTML tags and annotations like [PDF], etc.
-				String titleFound = titleOutline.replaceAll("<.*?>", "").replaceAll("\\[.*\\]", "")
-						.replaceAll("%20", " ").replaceAll("&#39;", "'").trim();
-
-				int elementDistance = Levenshtein.getDistance(titleFound.toLowerCase().replaceAll("\\W", ""),
-						title.toLowerCase().replaceAll("\\W", ""));
-
-				if (elementDistance < (title.length() / 100.0f * levenshteinParameter)) {
-					if (elementDistance < bestElementDistance) {
-						bestElementCitations = citations;
-						bestElementDistance = elementDistance;
-					} else if (elementDistance == bestElementDistance) {
-						if (citations > bestElementCitations) {
-							bestElementCitations = citations;
-							bestElementDistance = elementDistance;
-						}
-					}
+	/**
+	 * Looks up the citations of a title with the search at the given URL,
+	 * such as a {@link StandInServer}.
+	 */
+	public static int getCitations(String scholarUrl, String title) throws IOException {
+		String url = scholarUrl + ResponseCache.normalize(title).replace(" ", "%20");
+		String html = cache == null ? null : cache.get(url);
+		ScholarPageParser page;
+		if (html != null) {
+			page = ScholarPageParser.parse(html);
+		} else {
+			try (HttpTransport.Response response = HttpTransport.getDefault().get(url, "User-Agent", USER_AGENT)) {
+				int status = response.getStatus();
+				if (status == 429) {
+					System.out.println("Scholar has detected the robot");
+					return CitationEntry.ROBOT;
 				}
-			} else {
-				Matcher titleMatcher = titlePattern.matcher(entryMatcher.group());
-				if (titleMatcher.find()) {
-					String titleOutline = titleMatcher.group(1);
-					String titleFound = titleOutline.replaceAll("<.*?>", "").replaceAll("\\[.*\\]", "")
-							.replaceAll("%20", " ").replaceAll("&#39;", "'").trim();
-
-					int elementDistance = Levenshtein.getDistance(titleFound.toLowerCase().replaceAll("\\W", ""),
-							title.toLowerCase().replaceAll("\\W", ""));
-
-					if (elementDistance < (title.length() / 100.0f * levenshteinParameter)
-							&& elementDistance < bestElementDistance) {
-						bestElementCitations = 0;
-						bestElementDistance = elementDistance;
-					}
+				if (status >= 400) {
+					throw new HttpStatusException(status, url);
+				}
+				StringBuilder copy = cache == null ? null : new StringBuilder();
+				page = ScholarPageParser.parse(response.getReader(), copy);
+				if (copy != null && !page.isRobotPage()) {
+					cache.put(url, copy.toString());
 				}
 			}
 		}
 
-		if (bestElementCitations >= 0)
-			return bestElementCitations;
-		if (title.indexOf(":") >= 0) {
+		int citations = getCitations(page, title);
+		if (citations == CitationEntry.NOT_FOUND && title.indexOf(":") >= 0) {
 			System.out.println("Did not find title. Try again with: " + title.substring(0, title.indexOf(":")));
-			int citations = getCitations(title.substring(0, title.indexOf(":")));
-			return citations;
+			return getCitations(scholarUrl, title.substring(0, title.indexOf(":")));
 		}
-		return CitationEntry.NOT_FOUND;
+		return citations;
 	}
 
-	private static InputStream connect(URL url) throws IOException {
-		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-		String myCookie = "GSP=ID=bc97fd2103a97010:IN=88119b4bc736c413+eda666da4771d016:CF=4";
-		connection.setRequestProperty("Cookie", myCookie);
-		connection.setRequestProperty("User-Agent",
-				"Mozilla/6.0 (Windows NT 5.1; en-US; rv:x.x.x) Gecko/20041109 Firefox/x.x");
-		return connection.getInputStream();
+	/**
+	 * Finds the citations of the result whose title is closest to the given
+	 * title.
+	 *
+	 * @return the citations, NOT_FOUND, or ROBOT if the page asks to prove
+	 *         that it is not a robot
+	 */
+	static int parse(String html, String title) {
+		return getCitations(ScholarPageParser.parse(html), title);
 	}
 
-	private static String toString(InputStream in) throws IOException {
-		StringBuffer out = new StringBuffer();
-		byte[] b = new byte[4096];
-		for (int n; (n = in.read(b)) != -1;) {
-			out.append(new String(b, 0, n));
+	private static int getCitations(ScholarPageParser page, String title) {
+		if (page.isRobotPage()) {
+			System.out.println("Scholar has detected the robot");
+			return CitationEntry.ROBOT;
 		}
-		return out.toString();
+
+		// Find minimal Distance between titles found and the original title
+		int bestElementCitations = -1;
+		int bestElementDistance = 99999;
+		String normalizedTitle = NON_WORD.matcher(title.toLowerCase()).replaceAll("");
+		// the largest distance below the allowed share of the title length
+		int maxDistance = (int) Math.ceil(title.length() / 100.0f * levenshteinParameter) - 1;
+
+		for (ScholarPageParser.Result result : page.getResults()) {
+			int elementDistance = Levenshtein.getDistance(NON_WORD.matcher(result.title.toLowerCase()).replaceAll(""),
+					normalizedTitle, Math.min(maxDistance, bestElementDistance));
+			if (elementDistance <= Math.min(maxDistance, bestElementDistance)) {
+				// results without citations count as 0, but never replace an equally close result
+				int citations = Math.max(result.citations, 0);
+				if (elementDistance < bestElementDistance) {
+					bestElementCitations = citations;
+					bestElementDistance = elementDistance;
+				} else if (elementDistance == bestElementDistance && result.citations > bestElementCitations) {
+					bestElementCitations = citations;
+				}
+			}
+		}
+
+		if (bestElementCitations >= 0)
+			return bestElementCitations;
+		return CitationEntry.NOT_FOUND;
 	}
 
 }
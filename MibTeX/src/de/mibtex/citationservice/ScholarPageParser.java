@@ -0,0 +1,400 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the results on a Google Scholar page in a single pass over the
+ * characters, which can be fed in chunks as they arrive.
+ *
+ * The page is split into tags and text. A result is a div with the classes
+ * gs_r and gs_or up to its matching end tag; its title is the text after the
+ * first link in the h3 with the class gs_rt, and its citations are taken from
+ * a text "Cited by N". The contents of comments, scripts and styles are
+ * skipped.
+ */
+public class ScholarPageParser {
+
+	private static final Pattern CITED_BY = Pattern.compile("\\s*Cited by (\\d+)");
+
+	private static final Pattern CLASS = Pattern.compile("\\sclass\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"']+))",
+			Pattern.CASE_INSENSITIVE);
+
+	private static final String ROBOT_TEXT = "Please show you're not a robot";
+
+	private static final int TEXT = 0, TAG = 1, COMMENT = 2, RAW = 3;
+
+	/**
+	 * A result on the page.
+	 */
+	public static class Result {
+
+		public final String title;
+
+		/**
+		 * The citations or -1 if the result shows no citations
+		 */
+		public final int citations;
+
+		Result(String title, int citations) {
+			this.title = title;
+			this.citations = citations;
+		}
+	}
+
+	private final List<Result> results = new ArrayList<>();
+
+	private boolean robot = false;
+
+	private int state = TEXT;
+
+	private final StringBuilder text = new StringBuilder();
+
+	private final StringBuilder tag = new StringBuilder();
+
+	private char quote = 0;
+
+	/**
+	 * End tag that ends the current script or style and how much of it has
+	 * been matched
+	 */
+	private String rawEnd;
+
+	private int rawMatched;
+
+	private int blockDepth = 0;
+
+	private boolean inTitle = false;
+
+	private StringBuilder title;
+
+	private int citations;
+
+	private StringBuilder heading;
+
+	/**
+	 * Parses a complete page.
+	 */
+	public static ScholarPageParser parse(CharSequence html) {
+		ScholarPageParser parser = new ScholarPageParser();
+		parser.feed(html);
+		parser.finish();
+		return parser;
+	}
+
+	/**
+	 * Parses a page while it is read.
+	 *
+	 * @param copy
+	 *            receives the characters of the page, or null
+	 */
+	public static ScholarPageParser parse(Reader in, StringBuilder copy) throws IOException {
+		ScholarPageParser parser = new ScholarPageParser();
+		char[] buffer = new char[8192];
+		for (int n; (n = in.read(buffer)) != -1;) {
+			parser.feed(buffer, 0, n);
+			if (copy != null) {
+				copy.append(buffer, 0, n);
+			}
+		}
+		parser.finish();
+		return parser;
+	}
+
+	public List<Result> getResults() {
+		return results;
+	}
+
+	/**
+	 * Returns whether Google Scholar asks to prove that the client is not a
+	 * robot.
+	 */
+	public boolean isRobotPage() {
+		return robot;
+	}
+
+	public void feed(CharSequence chars) {
+		char[] buffer = new char[Math.min(chars.length(), 8192)];
+		for (int start = 0; start < chars.length(); start += buffer.length) {
+			int end = Math.min(chars.length(), start + buffer.length);
+			if (chars instanceof String) {
+				((String) chars).getChars(start, end, buffer, 0);
+			} else {
+				for (int i = start; i < end; i++) {
+					buffer[i - start] = chars.charAt(i);
+				}
+			}
+			feed(buffer, 0, end - start);
+		}
+	}
+
+	public void feed(char[] chars, int offset, int length) {
+		int end = offset + length;
+		int i = offset;
+		while (i < end) {
+			if (state == TEXT) {
+				// text is only kept within results and headings
+				int start = i;
+				while (i < end && chars[i] != '<') {
+					i++;
+				}
+				if (blockDepth > 0 || heading != null) {
+					text.append(chars, start, i - start);
+				}
+				if (i < end) {
+					handleText();
+					state = TAG;
+					i++;
+				}
+			} else {
+				next(chars[i++]);
+			}
+		}
+	}
+
+	public void finish() {
+		if (state == TEXT) {
+			handleText();
+		}
+	}
+
+	private void next(char c) {
+		switch (state) {
+		case TEXT:
+			if (c == '<') {
+				handleText();
+				state = TAG;
+			} else {
+				text.append(c);
+			}
+			break;
+		case TAG:
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+				tag.append(c);
+			} else if (c == '>') {
+				state = TEXT;
+				handleTag();
+				tag.setLength(0);
+			} else {
+				if ((c == '"' || c == '\'') && tag.indexOf("=") >= 0) {
+					quote = c;
+				}
+				tag.append(c);
+				if (tag.length() == 3 && tag.toString().equals("!--")) {
+					state = COMMENT;
+					tag.setLength(0);
+				}
+			}
+			break;
+		case COMMENT:
+			tag.append(c);
+			if (c == '>' && tag.length() >= 3 && tag.charAt(tag.length() - 2) == '-'
+					&& tag.charAt(tag.length() - 3) == '-') {
+				state = TEXT;
+				tag.setLength(0);
+			} else if (tag.length() > 2) {
+				tag.delete(0, tag.length() - 2);
+			}
+			break;
+		case RAW:
+			if (Character.toLowerCase(c) == rawEnd.charAt(rawMatched)) {
+				if (++rawMatched == rawEnd.length()) {
+					state = TAG;
+					tag.setLength(0);
+					tag.append(rawEnd, 1, rawEnd.length());
+				}
+			} else {
+				rawMatched = c == '<' ? 1 : 0;
+			}
+			break;
+		}
+	}
+
+	private void handleText() {
+		if (text.length() == 0) {
+			return;
+		}
+		if (heading != null) {
+			heading.append(decode(text));
+		}
+		if (blockDepth > 0) {
+			if (inTitle && title != null) {
+				title.append(decode(text));
+			}
+			if (citations < 0 && text.indexOf("Cited by") >= 0) {
+				Matcher matcher = CITED_BY.matcher(text);
+				if (matcher.lookingAt()) {
+					citations = Integer.parseInt(matcher.group(1));
+				}
+			}
+		}
+		text.setLength(0);
+	}
+
+	private void handleTag() {
+		boolean end = tag.length() > 0 && tag.charAt(0) == '/';
+		int start = end ? 1 : 0;
+		int nameEnd = start;
+		while (nameEnd < tag.length() && !Character.isWhitespace(tag.charAt(nameEnd)) && tag.charAt(nameEnd) != '/') {
+			nameEnd++;
+		}
+		String name = tag.substring(start, nameEnd).toLowerCase();
+		boolean selfClosing = tag.length() > 0 && tag.charAt(tag.length() - 1) == '/';
+		switch (name) {
+		case "div":
+			if (end) {
+				if (blockDepth > 0 && --blockDepth == 0) {
+					if (title != null) {
+						results.add(new Result(cleanTitle(title), citations));
+					}
+					inTitle = false;
+				}
+			} else if (blockDepth > 0) {
+				blockDepth++;
+			} else if (hasClasses("gs_r", "gs_or")) {
+				blockDepth = 1;
+				title = null;
+				citations = -1;
+			}
+			break;
+		case "h3":
+			if (blockDepth > 0) {
+				if (end) {
+					inTitle = false;
+				} else if (hasClasses("gs_rt")) {
+					inTitle = true;
+					title = null;
+				}
+			}
+			break;
+		case "a":
+			if (!end && inTitle && title == null) {
+				title = new StringBuilder();
+			}
+			break;
+		case "h1":
+			if (end) {
+				if (heading != null && heading.toString().trim().equals(ROBOT_TEXT)) {
+					robot = true;
+				}
+				heading = null;
+			} else {
+				heading = new StringBuilder();
+			}
+			break;
+		case "script":
+		case "style":
+			if (!end && !selfClosing) {
+				state = RAW;
+				rawEnd = "</" + name;
+				rawMatched = 0;
+			}
+			break;
+		default:
+		}
+	}
+
+	/**
+	 * Returns whether the class attribute of the current tag contains all
+	 * given classes.
+	 */
+	private boolean hasClasses(String... classes) {
+		Matcher matcher = CLASS.matcher(tag);
+		if (!matcher.find()) {
+			return false;
+		}
+		String value = matcher.group(1) != null ? matcher.group(1)
+				: matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+		List<String> present = Arrays.asList(value.trim().split("\\s+"));
+		return present.containsAll(Arrays.asList(classes));
+	}
+
+	/**
+	 * Removes annotations like [PDF] from a title.
+	 */
+	private static String cleanTitle(CharSequence title) {
+		return title.toString().replaceAll("\\[.*\\]", "").replace("%20", " ").trim();
+	}
+
+	/**
+	 * Decodes the character references of a text.
+	 */
+	static String decode(CharSequence text) {
+		int amp = indexOf(text, '&');
+		if (amp < 0) {
+			return text.toString();
+		}
+		StringBuilder decoded = new StringBuilder(text.length());
+		decoded.append(text, 0, amp);
+		for (int i = amp; i < text.length(); i++) {
+			char c = text.charAt(i);
+			int semicolon = c == '&' ? indexOf(text, ';', i, i + 10) : -1;
+			String replacement = semicolon < 0 ? null : decodeReference(text.subSequence(i + 1, semicolon).toString());
+			if (replacement == null) {
+				decoded.append(c);
+			} else {
+				decoded.append(replacement);
+				i = semicolon;
+			}
+		}
+		return decoded.toString();
+	}
+
+	private static String decodeReference(String reference) {
+		try {
+			if (reference.startsWith("#x") || reference.startsWith("#X")) {
+				return new String(Character.toChars(Integer.parseInt(reference.substring(2), 16)));
+			}
+			if (reference.startsWith("#")) {
+				return new String(Character.toChars(Integer.parseInt(reference.substring(1))));
+			}
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		switch (reference) {
+		case "amp":
+			return "&";
+		case "lt":
+			return "<";
+		case "gt":
+			return ">";
+		case "quot":
+			return "\"";
+		case "apos":
+			return "'";
+		case "nbsp":
+			return " ";
+		case "hellip":
+			return "\u2026";
+		default:
+			return null;
+		}
+	}
+
+	private static int indexOf(CharSequence text, char c) {
+		return indexOf(text, c, 0, text.length());
+	}
+
+	private static int indexOf(CharSequence text, char c, int from, int to) {
+		for (int i = from; i < Math.min(to, text.length()); i++) {
+			if (text.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
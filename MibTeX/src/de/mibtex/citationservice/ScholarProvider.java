@@ -0,0 +1,43 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.IOException;
+
+/**
+ * Looks up citations on Google Scholar by the title of an entry.
+ */
+public class ScholarProvider implements CitationProvider {
+
+	public static final String NAME = "scholar";
+
+	public static final String URL = "https://scholar.google.com/scholar?hl=en&q=";
+
+	private final String url;
+
+	public ScholarProvider() {
+		this(URL);
+	}
+
+	/**
+	 * @param url
+	 *            the URL of the search, to which the title is appended
+	 */
+	public ScholarProvider(String url) {
+		this.url = url;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int getCitations(CitationEntry entry) throws IOException {
+		return ScholarCitations.getCitations(url, entry.getTitle());
+	}
+}
@@ -7,14 +7,34 @@
 package de.mibtex.citationservice;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
+import java.util.Arrays;
 
 /**
  * A class that reads all BibTeX entries from a .csv file, gets the citations
  * and put the entries back in the .csv file
  *
+ * Citations are kept in a {@link CitationStore}, so each update appends a
+ * line instead of rewriting citations.csv, and entries whose citations got
+ * lost are appended to problems.csv. Each change of the citations of an entry
+ * is also appended to its {@link CitationHistory}, and each lookup is
+ * counted by the {@link CitationMetrics}.
+ *
+ * The next entry is chosen by a {@link RefreshScheduler} and its citations are
+ * looked up with a {@link CitationProvider}, by default by its DOI at Crossref
+ * and, if it has no DOI or Crossref does not know it, by its title at Google
+ * Scholar.
+ *
+ * Lookups run on a {@link FetchEngine} whose token bucket limits the rate of
+ * requests. By default, one thread starts with one request every 18 minutes,
+ * as before; several threads share the bucket and never update the same entry
+ * at once. An {@link AdaptiveRateController} raises the rate while the
+ * provider answers and lowers it or pauses when the provider throttles.
+ *
+ * The time of the service, i.e., the timestamps of the entries and all
+ * delays, is given by the {@link ServiceClock} of the token bucket, so that
+ * a {@link ScheduleSimulation} can run the service on a
+ * {@link SimulatedClock}.
+ *
  * @author Christopher Sontag, Thomas Thuem
  */
 public class ScholarService extends Thread {
@@ -22,89 +42,236 @@ public class ScholarService extends Thread {
 	/*
 	 * Delay in minutes - Standard 18 min
 	 */
-	private static final int MIN_DELAY = 18;
+	public static final int MIN_DELAY = 18;
 
-	private static final int EXTRA_DELAY = 2;
+	/*
+	 * Random extra delay in seconds
+	 */
+	public static final int EXTRA_DELAY = 2;
 	
-	private static final int MIN_ROBOT = 1440;
+	/*
+	 * Longest pause in minutes after the provider detected the robot
+	 */
+	public static final int MIN_ROBOT = 1440;
 
-	private Random rand = new Random();
+	/*
+	 * Lowest and highest requests per hour to which the rate adapts
+	 */
+	public static final double MIN_RATE = 0.5;
+
+	public static final double MAX_RATE = 10;
+
+	/*
+	 * Days after which an entry is refreshed
+	 */
+	public static final int REFRESH_DAYS = 30;
+
+	public static final double VELOCITY_WEIGHT = 1.0;
+
+	/*
+	 * Providers asked one after another: by DOI first, then by title
+	 */
+	public static final String PROVIDERS = "crossref," + ScholarProvider.NAME;
+
+	/*
+	 * Seconds after which the metrics file is written again
+	 */
+	public static final int METRICS_SECONDS = 60;
 
 	private File citationsFile;
 
 	private File problemsFile;
 
+	private final AdaptiveRateController rate;
+
+	private final int threads;
+
+	private final RefreshScheduler scheduler;
+
+	private final CitationProvider provider;
+
+	private final CitationMetrics metrics;
+
+	private final ServiceClock clock;
+
+	private volatile FetchEngine engine;
+
+	private CitationStore store;
+
+	private CitationHistory history;
+
+	/**
+	 * The generation of the store for which the scheduler was updated
+	 */
+	private volatile int generation = 0;
+
 	public ScholarService(File citationsFile, File problemsFile) {
+		this(citationsFile, problemsFile,
+				new AdaptiveRateController(new File(citationsFile.getParentFile(), AdaptiveRateController.FILE_NAME),
+						new TokenBucket(60.0 / MIN_DELAY, 1, EXTRA_DELAY * 1000), MIN_RATE, MAX_RATE,
+						MIN_ROBOT * 60 * 1000L),
+				1,
+				new RefreshScheduler(new File(citationsFile.getParentFile(), "schedule.csv"),
+						REFRESH_DAYS * RefreshScheduler.DAY, VELOCITY_WEIGHT),
+				new CombinedProvider(Arrays.asList(JsonCitationProvider.crossref(JsonCitationProvider.CROSSREF_HOST),
+						new ScholarProvider()), CombinedProvider.Policy.FALLBACK));
+	}
+
+	public ScholarService(File citationsFile, File problemsFile, AdaptiveRateController rate, int threads,
+			RefreshScheduler scheduler, CitationProvider provider) {
+		this(citationsFile, problemsFile, rate, threads, scheduler, provider, METRICS_SECONDS * 1000L);
+	}
+
+	/**
+	 * @param rate
+	 *            the controller of the token bucket, whose clock is used by
+	 *            the whole service; the scheduler should use the same clock
+	 * @param metricsPeriod
+	 *            milliseconds after which the metrics file is written again, or
+	 *            0 to only write it when the service stops
+	 */
+	public ScholarService(File citationsFile, File problemsFile, AdaptiveRateController rate, int threads,
+			RefreshScheduler scheduler, CitationProvider provider, long metricsPeriod) {
 		this.citationsFile = citationsFile;
 		this.problemsFile = problemsFile;
+		this.rate = rate;
+		this.threads = threads;
+		this.scheduler = scheduler;
+		this.clock = rate.getBucket().getClock();
+		this.metrics = new CitationMetrics(new File(citationsFile.getParentFile(), CitationMetrics.FILE_NAME),
+				scheduler, metricsPeriod, clock);
+		this.provider = metrics.measure(rate.control(provider));
+	}
+
+	public CitationMetrics getMetrics() {
+		return metrics;
+	}
+
+	public AdaptiveRateController getRateController() {
+		return rate;
+	}
+
+	/**
+	 * Stops the lookups and waits until running lookups finished, after which
+	 * {@link #run()} closes the store and returns.
+	 */
+	public void shutdown() throws InterruptedException {
+		FetchEngine current = engine;
+		if (current != null) {
+			current.stop();
+		}
 	}
 
 	@Override
 	public void run() {
-		while (true) {
-			List<CitationEntry> entries = readFromFile(citationsFile);
-			CitationEntry entry = nextEntry(entries);
-			int oldCitations = entry.getCitations();
-			boolean success = entry.updateCitations();
-			if (entry.getCitations() != CitationEntry.PROBLEM_OCCURED) {
-				writeToFile(citationsFile, entries);
-			}
-			if (oldCitations > 0 && entry.getCitations() <= 0) {
-				List<CitationEntry> problems = readFromFile(problemsFile);
-				problems.add(entry);
-				writeToFile(problemsFile, problems);
-			}
+		try (CitationStore store = CitationStore.open(citationsFile); CitationHistory history = openHistory()) {
+			this.store = store;
+			this.history = history;
+			scheduler.init(store.getEntries());
+			FetchEngine engine = new FetchEngine();
+			this.engine = engine;
+			// the controller pauses the bucket when the provider detects the robot
+			engine.addLane(provider.getName(), rate.getBucket(), threads, 0, this::updateNextEntry);
+			metrics.start();
+			HttpTransport.getDefault().setListener(metrics);
 			try {
-				if (!success) System.out.println("Will wait for "+ MIN_ROBOT + " minutes to avoid robot detection");
-				sleep((success ? MIN_DELAY : MIN_ROBOT) * 60 * 1000 + rand.nextInt(EXTRA_DELAY * 1000));
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+				engine.start();
+				engine.awaitTermination();
+			} finally {
+				HttpTransport.getDefault().setListener(null);
+				metrics.stop();
 			}
+		} catch (IOException e) {
+			System.out.println("IOException for " + citationsFile.getAbsolutePath());
+		} catch (InterruptedException e) {
+			e.printStackTrace();
 		}
 	}
 
-	protected CitationEntry nextEntry(List<CitationEntry> entries) {
-		if (entries.size() > 0) {
-			CitationEntry next = entries.get(0);
-			for (CitationEntry entry : entries) {
-				if (entry.getCitations() == CitationEntry.UNINITIALIZED)
-					return entry;
-				if (entry.getLastUpdate() < next.getLastUpdate())
-					next = entry;
-			}
-			return next;
+	/**
+	 * Opens the history next to the citations.
+	 *
+	 * @return null if the history cannot be opened, so that the citations are
+	 *         updated without it
+	 */
+	private CitationHistory openHistory() {
+		File historyFile = new File(citationsFile.getParentFile(), CitationHistory.FILE_NAME);
+		try {
+			return CitationHistory.open(historyFile);
+		} catch (IOException e) {
+			System.out.println("IOException for " + historyFile.getAbsolutePath() + ", continuing without history");
+			return null;
 		}
-		return null;
 	}
 
-	protected List<CitationEntry> readFromFile(File file) {
-		System.out.print("Reading " + file.getName() + "... ");
-		List<CitationEntry> entries = new ArrayList<CitationEntry>();
-		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-			for (String line; (line = br.readLine()) != null;) {
-				entries.add(CitationEntry.getFromCSV(line));
+	/**
+	 * Updates the citations of the entry that is due first, or waits until an
+	 * entry is due.
+	 *
+	 * @return false if the provider detected the robot
+	 */
+	private boolean updateNextEntry() throws InterruptedException {
+		String key = scheduler.next();
+		if (key == null) {
+			scheduler.awaitDue();
+			return true;
+		}
+		CitationEntry before;
+		CitationEntry entry;
+		try {
+			if (store.getGeneration() != generation) {
+				// another writer, such as the export of citations.csv, changed the entries
+				generation = store.getGeneration();
+				scheduler.update(store.getEntries());
+			}
+			before = store.get(key);
+			entry = store.get(key);
+		} catch (IOException e) {
+			System.out.println("IOException for " + citationsFile.getAbsolutePath());
+			scheduler.retry(key);
+			return true;
+		}
+		if (entry == null) {
+			// removed by another writer
+			return true;
+		}
+		try {
+			int oldCitations = entry.getCitations();
+			boolean success = entry.updateCitations(provider, clock);
+			if (entry.getCitations() != CitationEntry.PROBLEM_OCCURED) {
+				store.update(entry);
+				appendHistory(entry);
+			}
+			if (oldCitations > 0 && entry.getCitations() <= 0) {
+				appendProblem(entry);
 			}
+			return success;
 		} catch (IOException e) {
-			System.out.println("IOException for " + file.getAbsolutePath());
+			System.out.println("IOException for " + citationsFile.getAbsolutePath());
+			return true;
+		} finally {
+			scheduler.record(before, entry, entry.getLastResult());
 		}
-		System.out.println("done.");
-		return entries;
 	}
 
-	protected void writeToFile(File file, List<CitationEntry> entries) {
-		System.out.print("Updating " + file.getName() + "... ");
+	private void appendHistory(CitationEntry entry) {
+		if (history == null) {
+			return;
+		}
 		try {
-			BufferedWriter out = new BufferedWriter(new FileWriter(file));
-			for (CitationEntry entry : entries) {
-				out.append(entry.getCSVString());
-			}
-			out.close();
-		} catch (FileNotFoundException e) {
-			System.out.println("Not found " + file.getAbsolutePath());
+			history.append(entry.getKey(), entry.getLastUpdate(), entry.getCitations());
+		} catch (IOException e) {
+			System.out.println("IOException for " + new File(citationsFile.getParentFile(), CitationHistory.FILE_NAME)
+					.getAbsolutePath());
+		}
+	}
+
+	private synchronized void appendProblem(CitationEntry entry) {
+		try (Writer out = new BufferedWriter(new FileWriter(problemsFile, true))) {
+			out.append(entry.getCSVString());
 		} catch (IOException e) {
-			System.out.println("IOException for " + file.getAbsolutePath());
+			System.out.println("IOException for " + problemsFile.getAbsolutePath());
 		}
-		System.out.println("done.");
 	}
 
 }
@@ -0,0 +1,56 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+/**
+ * The time as seen by the citation service. All timestamps, such as the last
+ * update of an entry, and all delays between requests go through a clock, so
+ * that the service can run against a {@link SimulatedClock} in which hours of
+ * waiting pass immediately.
+ */
+public interface ServiceClock {
+
+	/**
+	 * The wall clock, i.e., {@link System#currentTimeMillis()},
+	 * {@link Thread#sleep(long)} and {@link Object#wait(long)}.
+	 */
+	ServiceClock SYSTEM = new ServiceClock() {
+
+		@Override
+		public long millis() {
+			return System.currentTimeMillis();
+		}
+
+		@Override
+		public void sleep(long millis) throws InterruptedException {
+			Thread.sleep(millis);
+		}
+
+		@Override
+		public void await(Object monitor, long millis) throws InterruptedException {
+			monitor.wait(millis);
+		}
+	};
+
+	/**
+	 * Returns the current time in milliseconds since the epoch.
+	 */
+	long millis();
+
+	/**
+	 * Blocks the current thread for the given time.
+	 */
+	void sleep(long millis) throws InterruptedException;
+
+	/**
+	 * Waits on the given monitor, which the current thread holds, until it is
+	 * notified or the given time passed, like {@link Object#wait(long)}. As
+	 * with {@link Object#wait(long)}, the caller checks its condition again
+	 * afterwards.
+	 */
+	void await(Object monitor, long millis) throws InterruptedException;
+}
@@ -0,0 +1,160 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A clock whose time only passes while the service waits. The clock knows how
+ * many threads take part, such as the threads of a {@link FetchEngine}. As
+ * soon as all of them wait in {@link #sleep(long)} or
+ * {@link #await(Object, long)}, the time jumps to the earliest deadline and
+ * the threads waiting for it are woken; the work between two waits takes no
+ * time at all. Hence, a month of scheduling with one request every 18 minutes
+ * runs in as long as the lookups themselves take.
+ *
+ * The time never passes the limit set by {@link #advanceTo(long)}, so that a
+ * simulation can stop the service at a given time and inspect it.
+ */
+public class SimulatedClock implements ServiceClock {
+
+	private final int parties;
+
+	private final List<Waiter> waiters = new ArrayList<>();
+
+	private long now;
+
+	private long limit;
+
+	/**
+	 * @param parties
+	 *            the number of threads that have to wait before the time
+	 *            passes
+	 * @param start
+	 *            the initial time in milliseconds since the epoch
+	 */
+	public SimulatedClock(int parties, long start) {
+		if (parties < 1) {
+			throw new IllegalArgumentException("Invalid number of threads " + parties);
+		}
+		this.parties = parties;
+		this.now = start;
+		this.limit = start;
+		Thread ticker = new Thread(this::tick, "simulated-clock");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	@Override
+	public synchronized long millis() {
+		return now;
+	}
+
+	@Override
+	public void sleep(long millis) throws InterruptedException {
+		Object monitor = new Object();
+		synchronized (monitor) {
+			long deadline = millis() + millis;
+			for (long now = millis(); now < deadline; now = millis()) {
+				await(monitor, deadline - now);
+			}
+		}
+	}
+
+	@Override
+	public void await(Object monitor, long millis) throws InterruptedException {
+		Waiter waiter;
+		synchronized (this) {
+			// like Object.wait, 0 means to wait until notified
+			waiter = new Waiter(monitor, millis <= 0 ? Long.MAX_VALUE : now + millis);
+			waiters.add(waiter);
+			notifyAll();
+		}
+		try {
+			// the ticker notifies the monitor only after it marked the waiter
+			if (!waiter.woken) {
+				monitor.wait();
+			}
+		} finally {
+			synchronized (this) {
+				waiters.remove(waiter);
+			}
+		}
+	}
+
+	/**
+	 * Lets the time pass up to the given time and blocks until it is reached
+	 * and all threads wait again. Blocks forever if fewer threads than
+	 * expected are running.
+	 */
+	public synchronized void advanceTo(long time) throws InterruptedException {
+		limit = Math.max(limit, time);
+		notifyAll();
+		while (now < time || waiters.size() < parties) {
+			wait();
+		}
+	}
+
+	private void tick() {
+		List<Waiter> due = new ArrayList<>();
+		while (true) {
+			synchronized (this) {
+				while (due.isEmpty()) {
+					if (waiters.size() >= parties) {
+						long next = limit;
+						for (Waiter waiter : waiters) {
+							next = Math.min(next, waiter.deadline);
+						}
+						if (next > now) {
+							now = next;
+							// wakes a simulation waiting for the limit
+							notifyAll();
+						}
+						for (Iterator<Waiter> it = waiters.iterator(); it.hasNext();) {
+							Waiter waiter = it.next();
+							if (waiter.deadline <= now) {
+								waiter.woken = true;
+								due.add(waiter);
+								it.remove();
+							}
+						}
+					}
+					if (due.isEmpty()) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}
+			// outside the lock of the clock, as the woken threads take it again
+			for (Waiter waiter : due) {
+				synchronized (waiter.monitor) {
+					waiter.monitor.notifyAll();
+				}
+			}
+			due.clear();
+		}
+	}
+
+	private static class Waiter {
+
+		final Object monitor;
+
+		final long deadline;
+
+		volatile boolean woken = false;
+
+		Waiter(Object monitor, long deadline) {
+			this.monitor = monitor;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server that answers with the responses recorded in a
+ * {@link ResponseCache}, so that the citation service can be run, measured
+ * and debugged without sending requests to the real providers.
+ *
+ * A request is answered with the recorded response whose URL has the same
+ * path and query, regardless of the host. Other requests are answered with
+ * 404. To use the server, set the option citation-stand-in to its address;
+ * all providers then send their requests to it.
+ */
+public class StandInServer {
+
+	private final HttpServer server;
+
+	private final Map<String, String> responses = new HashMap<>();
+
+	private final long delay;
+
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * @param recorded
+	 *            directory of the response cache with the recorded responses
+	 * @param port
+	 *            port to listen on, or 0 for any free port
+	 * @param delay
+	 *            time in milliseconds to wait before each response, to
+	 *            simulate a remote server
+	 */
+	public StandInServer(File recorded, int port, long delay) throws IOException {
+		this.delay = delay;
+		ResponseCache cache = new ResponseCache(recorded, Long.MAX_VALUE, Long.MAX_VALUE);
+		for (ResponseCache.CachedPage page : cache.getPages()) {
+			responses.put(getPathAndQuery(URI.create(page.url)), page.html);
+		}
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(Executors.newCachedThreadPool());
+	}
+
+	/**
+	 * Starts a stand-in server until the process is stopped.
+	 *
+	 * @param args
+	 *            the directory of the recorded responses, the port (default:
+	 *            8080) and the delay in milliseconds (default: 0)
+	 */
+	public static void main(String[] args) throws IOException {
+		StandInServer server = new StandInServer(new File(args.length > 0 ? args[0] : "cache"),
+				args.length > 1 ? Integer.parseInt(args[1]) : 8080, args.length > 2 ? Long.parseLong(args[2]) : 0);
+		server.start();
+		System.out.println("Serving " + server.responses.size() + " recorded responses at " + server.getAddress());
+	}
+
+	/**
+	 * Replaces the scheme and host of a URL with the address of a stand-in
+	 * server.
+	 */
+	public static String redirect(String url, String standIn) {
+		URI uri = URI.create(url);
+		return standIn + url.substring(uri.getScheme().length() + 3 + uri.getRawAuthority().length());
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		((ExecutorService) server.getExecutor()).shutdownNow();
+	}
+
+	public String getAddress() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the number of requests answered so far.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			requests.incrementAndGet();
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			String response = responses.get(getPathAndQuery(exchange.getRequestURI()));
+			byte[] body = (response == null ? "Not recorded" : response).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					response != null && response.startsWith("{") ? "application/json" : "text/html; charset=UTF-8");
+			exchange.sendResponseHeaders(response == null ? 404 : 200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static String getPathAndQuery(URI uri) {
+		return uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+	}
+}
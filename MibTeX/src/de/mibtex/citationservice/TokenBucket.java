@@ -0,0 +1,140 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.citationservice;
+
+import java.util.Random;
+
+/**
+ * Limits the rate of requests to a citation provider. The bucket holds up to
+ * burst tokens and is refilled continuously at the given rate; each request
+ * takes one token and is delayed by a random jitter afterwards. A provider
+ * that detects the service as a robot can pause the bucket, and the rate can
+ * be changed while requests wait, such as by an
+ * {@link AdaptiveRateController}. All waiting goes through a
+ * {@link ServiceClock}.
+ */
+public class TokenBucket {
+
+	private double tokensPerMillisecond;
+
+	private final int burst;
+
+	private final int jitterMillis;
+
+	private final Random random = new Random();
+
+	private final ServiceClock clock;
+
+	private double tokens;
+
+	private long lastRefill;
+
+	private long pausedUntil = 0;
+
+	/**
+	 * @param requestsPerHour
+	 *            the rate at which tokens are added
+	 * @param burst
+	 *            the maximum number of tokens, which is also the initial number
+	 * @param jitterMillis
+	 *            the maximal random delay added to each request
+	 */
+	public TokenBucket(double requestsPerHour, int burst, int jitterMillis) {
+		this(requestsPerHour, burst, jitterMillis, ServiceClock.SYSTEM);
+	}
+
+	/**
+	 * @param clock
+	 *            the clock used to wait for tokens
+	 */
+	public TokenBucket(double requestsPerHour, int burst, int jitterMillis, ServiceClock clock) {
+		if (requestsPerHour <= 0 || burst < 1 || jitterMillis < 0) {
+			throw new IllegalArgumentException("Invalid rate " + requestsPerHour + ", burst " + burst
+					+ " or jitter " + jitterMillis);
+		}
+		this.tokensPerMillisecond = requestsPerHour / (60 * 60 * 1000);
+		this.burst = burst;
+		this.jitterMillis = jitterMillis;
+		this.tokens = burst;
+		this.clock = clock;
+		this.lastRefill = clock.millis();
+	}
+
+	public ServiceClock getClock() {
+		return clock;
+	}
+
+	public synchronized double getRate() {
+		return tokensPerMillisecond * 60 * 60 * 1000;
+	}
+
+	/**
+	 * Changes the rate at which tokens are added; tokens added so far are
+	 * kept.
+	 */
+	public synchronized void setRate(double requestsPerHour) {
+		if (requestsPerHour <= 0) {
+			throw new IllegalArgumentException("Invalid rate " + requestsPerHour);
+		}
+		refill(clock.millis());
+		tokensPerMillisecond = requestsPerHour / (60 * 60 * 1000);
+		notifyAll();
+	}
+
+	/**
+	 * Blocks until a token is available and takes it.
+	 */
+	public void acquire() throws InterruptedException {
+		synchronized (this) {
+			while (true) {
+				long now = clock.millis();
+				refill(now);
+				long wait;
+				if (now < pausedUntil) {
+					wait = pausedUntil - now;
+				} else if (tokens >= 1) {
+					tokens -= 1;
+					break;
+				} else {
+					wait = (long) Math.ceil((1 - tokens) / tokensPerMillisecond);
+				}
+				clock.await(this, Math.max(1, wait));
+			}
+		}
+		if (jitterMillis > 0) {
+			clock.sleep(random.nextInt(jitterMillis));
+		}
+	}
+
+	/**
+	 * Hands out no tokens for the given time and discards the saved ones. When
+	 * the pause ends, the bucket holds a single token, so that requests resume
+	 * at the normal rate instead of with a burst.
+	 */
+	public synchronized void pause(long millis) {
+		long now = clock.millis();
+		refill(now);
+		tokens = 0;
+		pausedUntil = Math.max(pausedUntil, now + millis);
+		notifyAll();
+	}
+
+	private void refill(long now) {
+		if (pausedUntil > lastRefill) {
+			if (now < pausedUntil) {
+				lastRefill = now;
+				return;
+			}
+			tokens = 1;
+			lastRefill = pausedUntil;
+		}
+		if (now > lastRefill) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerMillisecond);
+			lastRefill = now;
+		}
+	}
+}
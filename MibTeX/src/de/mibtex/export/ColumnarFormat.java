@@ -0,0 +1,39 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.export;
+
+/**
+ * Constants of the columnar file format, which is described at
+ * {@link ExportColumnar}. They are kept apart from the exporter, so that
+ * {@link ColumnarReader} can be used without the BibTeX parser.
+ */
+final class ColumnarFormat {
+
+    static final byte[] MAGIC = { 'M', 'I', 'B', 'C', 'O', 'L', 0, 1 };
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 24;
+
+    static final int INT = 1;
+
+    static final int STRING = 2;
+
+    static final int DICTIONARY = 3;
+
+    static final int MULTI_DICTIONARY = 4;
+
+    private ColumnarFormat() {
+    }
+
+    /**
+     * Rounds the given position up to the next multiple of 8.
+     */
+    static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+}
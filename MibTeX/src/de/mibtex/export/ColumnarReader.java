@@ -0,0 +1,292 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.export;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Reads files written by {@link ExportColumnar}. The file is memory-mapped
+ * and only the directory is read when opening it; each column is accessed in
+ * place when it is requested, without reading or parsing the other columns.
+ */
+public class ColumnarReader implements Closeable {
+
+    private final FileChannel channel;
+
+    private final ByteBuffer file;
+
+    private final int rowCount;
+
+    private final Map<String, ColumnInfo> columns = new LinkedHashMap<>();
+
+    public ColumnarReader(File path) throws IOException {
+        channel = FileChannel.open(path.toPath());
+        try {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[ColumnarFormat.MAGIC.length];
+            if (file.limit() >= ColumnarFormat.HEADER_SIZE) {
+                file.get(magic);
+            }
+            if (!Arrays.equals(magic, ColumnarFormat.MAGIC)) {
+                throw new IOException("Not a columnar MibTeX file: " + path);
+            }
+            int version = file.getInt();
+            if (version != ColumnarFormat.VERSION) {
+                throw new IOException("Unsupported version " + version + " of " + path);
+            }
+            rowCount = file.getInt();
+            int columnCount = file.getInt();
+            file.position(ColumnarFormat.HEADER_SIZE);
+            for (int i = 0; i < columnCount; i++) {
+                int type = file.getInt();
+                byte[] name = new byte[file.getInt()];
+                file.get(name);
+                file.position((int) ColumnarFormat.align(file.position()));
+                long offset = file.getLong();
+                long length = file.getLong();
+                columns.put(new String(name, StandardCharsets.UTF_8),
+                        new ColumnInfo(type, Math.toIntExact(offset), Math.toIntExact(length)));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Prints the citations per venue and year of a columnar file.
+     *
+     * @param args the path of the file
+     */
+    public static void main(String[] args) throws IOException {
+        try (ColumnarReader reader = new ColumnarReader(new File(args.length == 0 ? "literature.mibcol" : args[0]))) {
+            long start = System.nanoTime();
+            Map<String, Map<Integer, Long>> sums = reader.sum("citations", "venue", "year");
+            long time = (System.nanoTime() - start) / 1000;
+            for (Map.Entry<String, Map<Integer, Long>> venue : sums.entrySet()) {
+                System.out.println(venue.getKey() + ": " + venue.getValue());
+            }
+            System.out.println("Aggregated " + reader.getRowCount() + " entries in " + time + " microseconds");
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public Set<String> getColumnNames() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    public IntBuffer getInts(String column) {
+        return slice(column, ColumnarFormat.INT).asIntBuffer();
+    }
+
+    public Strings getStrings(String column) {
+        return new Strings(slice(column, ColumnarFormat.STRING), rowCount);
+    }
+
+    public Dictionary getDictionary(String column) {
+        return new Dictionary(slice(column, ColumnarFormat.DICTIONARY), rowCount);
+    }
+
+    public MultiDictionary getMultiDictionary(String column) {
+        return new MultiDictionary(slice(column, ColumnarFormat.MULTI_DICTIONARY), rowCount);
+    }
+
+    /**
+     * Sums an integer column grouped by a dictionary column and an integer
+     * column, such as the citations per venue and year. Negative values, which
+     * stand for unknown citations, are skipped.
+     *
+     * @return the sums by value of the dictionary column and of the integer
+     *         column, the latter in ascending order
+     */
+    public Map<String, Map<Integer, Long>> sum(String valueColumn, String dictionaryColumn, String groupColumn) {
+        IntBuffer values = getInts(valueColumn);
+        Dictionary dictionary = getDictionary(dictionaryColumn);
+        IntBuffer groups = getInts(groupColumn);
+        // sparse, as the groups may span a wide range, such as years with 0 for unknown years
+        List<Map<Integer, Long>> byCode = new ArrayList<>(dictionary.size());
+        for (int code = 0; code < dictionary.size(); code++) {
+            byCode.add(new TreeMap<>());
+        }
+        for (int row = 0; row < rowCount; row++) {
+            int value = values.get(row);
+            if (value >= 0) {
+                byCode.get(dictionary.code(row)).merge(groups.get(row), (long) value, Long::sum);
+            }
+        }
+        Map<String, Map<Integer, Long>> result = new LinkedHashMap<>();
+        for (int code = 0; code < dictionary.size(); code++) {
+            if (!byCode.get(code).isEmpty()) {
+                result.put(dictionary.value(code), byCode.get(code));
+            }
+        }
+        return result;
+    }
+
+    private ByteBuffer slice(String column, int type) {
+        ColumnInfo info = columns.get(column);
+        if (info == null) {
+            throw new IllegalArgumentException("No column " + column);
+        }
+        if (info.type != type) {
+            throw new IllegalArgumentException("Column " + column + " has type " + info.type + " instead of " + type);
+        }
+        return file.slice(info.offset, info.length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A column of texts stored as offsets into their UTF-8 bytes.
+     */
+    public static class Strings {
+
+        private final IntBuffer offsets;
+
+        private final ByteBuffer bytes;
+
+        private final int size;
+
+        Strings(ByteBuffer data, int size) {
+            this.size = size;
+            offsets = data.slice(0, 4 * (size + 1)).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            bytes = data.slice(4 * (size + 1), data.limit() - 4 * (size + 1));
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String get(int index) {
+            int start = offsets.get(index);
+            byte[] value = new byte[offsets.get(index + 1) - start];
+            bytes.get(start, value);
+            return new String(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A column with one code per row that refers to a table of distinct
+     * values.
+     */
+    public static class Dictionary {
+
+        private final IntBuffer codes;
+
+        private final Strings values;
+
+        Dictionary(ByteBuffer data, int rowCount) {
+            int size = data.getInt(0);
+            codes = data.slice(4, 4 * rowCount).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            int start = 4 + 4 * rowCount;
+            values = new Strings(data.slice(start, data.limit() - start).order(ByteOrder.LITTLE_ENDIAN), size);
+        }
+
+        /**
+         * Returns the number of distinct values.
+         */
+        public int size() {
+            return values.size();
+        }
+
+        public int code(int row) {
+            return codes.get(row);
+        }
+
+        public String value(int code) {
+            return values.get(code);
+        }
+
+        public String get(int row) {
+            return value(code(row));
+        }
+    }
+
+    /**
+     * A column with any number of codes per row that refer to a table of
+     * distinct values.
+     */
+    public static class MultiDictionary {
+
+        private final IntBuffer offsets;
+
+        private final IntBuffer codes;
+
+        private final Strings values;
+
+        MultiDictionary(ByteBuffer data, int rowCount) {
+            int size = data.getInt(0);
+            offsets = data.slice(4, 4 * (rowCount + 1)).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            int codeCount = offsets.get(rowCount);
+            int start = 4 + 4 * (rowCount + 1);
+            codes = data.slice(start, 4 * codeCount).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            start += 4 * codeCount;
+            values = new Strings(data.slice(start, data.limit() - start).order(ByteOrder.LITTLE_ENDIAN), size);
+        }
+
+        /**
+         * Returns the number of distinct values.
+         */
+        public int size() {
+            return values.size();
+        }
+
+        public int[] codes(int row) {
+            int[] result = new int[offsets.get(row + 1) - offsets.get(row)];
+            codes.get(offsets.get(row), result);
+            return result;
+        }
+
+        public String value(int code) {
+            return values.get(code);
+        }
+
+        public List<String> get(int row) {
+            List<String> result = new ArrayList<>();
+            for (int code : codes(row)) {
+                result.add(value(code));
+            }
+            return result;
+        }
+    }
+
+    private static class ColumnInfo {
+
+        final int type;
+
+        final int offset;
+
+        final int length;
+
+        ColumnInfo(int type, int offset, int length) {
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
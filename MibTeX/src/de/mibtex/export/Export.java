@@ -8,6 +8,8 @@ package de.mibtex.export;
 
 import de.mibtex.*;
 import de.mibtex.citationservice.CitationEntry;
+import de.mibtex.citationservice.CitationHistory;
+import de.mibtex.citationservice.CitationStore;
 import org.jbibtex.*;
 
 import java.io.*;
@@ -15,6 +17,8 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.function.Supplier;
 
@@ -88,18 +92,10 @@ public abstract class Export {
     }
 
     private static void readCitations() {
-        List<CitationEntry> citationsEntries = new ArrayList<CitationEntry>();
         File fileHandle = new File(BibtexViewer.CITATION_DIR, "citations.csv");
         if (fileHandle.exists()) {
-            try (BufferedReader br = new BufferedReader(new FileReader(
-                    fileHandle))) {
-                for (String line; (line = br.readLine()) != null; ) {
-                    citationsEntries.add(CitationEntry.getFromCSV(line));
-                }
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
+            // includes the updates the citation service journaled since its last compaction
+            List<CitationEntry> citationsEntries = CitationStore.read(fileHandle);
             for (CitationEntry citationEntry : citationsEntries) {
                 if (entries.containsKey(citationEntry.getKey())) {
                     BibtexEntry bibtexEntry = entries.get(citationEntry
@@ -109,6 +105,18 @@ public abstract class Export {
                 }
             }
         }
+        File historyFile = new File(BibtexViewer.CITATION_DIR, CitationHistory.FILE_NAME);
+        try {
+            long since = System.currentTimeMillis() - BibtexViewer.CITATION_TREND_MONTHS * 365L * 24 * 3600 * 1000 / 12;
+            for (CitationHistory.Trend trend : CitationHistory.readTrends(historyFile, since).values()) {
+                BibtexEntry bibtexEntry = entries.get(trend.key);
+                if (bibtexEntry != null) {
+                    bibtexEntry.citationTrend = trend;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("IOException for " + historyFile.getAbsolutePath());
+        }
 
     }
 
@@ -195,7 +203,7 @@ public abstract class Export {
             for (BibtexEntry entry : missing) {
                 for (File file : available) {
                 	File currentName = comments ? entry.getCommentsPath() : entry.getPDFPath();
-                    int distance = Levenshtein.getDistance(file.getName(), currentName.getName());
+                    int distance = Levenshtein.getDistance(file.getName(), currentName.getName(), minDistance - 1);
                     if (distance < minDistance) {
                         minDistance = distance;
                         missingEntry = entry;
@@ -330,6 +338,49 @@ public abstract class Export {
 		});
     }
     
+    /**
+     * Writes content that is generated piece by piece to the given file
+     * without holding it in memory. The content is streamed to a temporary
+     * file, which replaces the given file only if the content changed.
+     *
+     * @return false if the file could not be written, in which case the old
+     *         file is kept
+     */
+    protected static boolean writeToFile(File path, Template.Slot content) {
+        return writeToFile(path, Charset.defaultCharset(), content);
+    }
+
+    protected static boolean writeToFile(File path, Charset encoding, Template.Slot content) {
+        File temporary = new File(path.getPath() + ".tmp");
+        try {
+            path.getAbsoluteFile().getParentFile().mkdirs();
+            try (BufferedWriter out = new BufferedWriter(new FileWriter(temporary, encoding))) {
+                content.write(out);
+            }
+            replaceIfChanged(path, temporary);
+            return true;
+        } catch (IOException e) {
+            System.out.println("IOException for " + path);
+            temporary.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the given file with a completely written temporary file if
+     * their contents differ, and deletes the temporary file otherwise.
+     */
+    protected static void replaceIfChanged(File path, File temporary) throws IOException {
+        if (path.exists() && Files.mismatch(path.toPath(), temporary.toPath()) < 0) {
+            Files.delete(temporary.toPath());
+            System.out.println(path + " unchanged: No update required!");
+        } else {
+            System.out.println("Updating " + path);
+            Files.move(temporary.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+    
     protected static void writeToFileInUTF8(File path, String content) {
 		CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
 		encoder.onMalformedInput(CodingErrorAction.REPORT);
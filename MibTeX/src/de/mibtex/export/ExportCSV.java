@@ -6,31 +6,193 @@
  */
 package de.mibtex.export;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import de.mibtex.BibtexEntry;
 import de.mibtex.BibtexViewer;
 
 /**
- * A class that generates a .csv file with all BibTeX entries
+ * A class that generates a .csv file with all BibTeX entries. Fields are
+ * quoted as defined by RFC 4180 and rows end with CRLF. The columns are set
+ * with the option csv-columns; each column is either one of the derived fields
+ * key, type, author, title, venue, year, citations, citationsPerYear, doi, url
+ * and tags (all tags), the name of a tag field, or any other BibTeX field.
+ * 
+ * Rows are formatted in parallel in chunks for large libraries and written in
+ * the order of the BibTeX file.
  * 
  * @author Christopher Sontag
  */
 public class ExportCSV extends Export {
-    
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private static final String LINE_BREAK = "\r\n";
+
     public ExportCSV(String path, String file) throws Exception {
         super(path, file);
     }
-    
-    
 
     @Override
     public void writeDocument() {
-        StringBuilder CSV = new StringBuilder();
-        for (BibtexEntry entry : entries.values()){
-            CSV.append("\"" + entry.key + "\";").append("\"" + entry.author + "\";").append("\"" + entry.title + "\";")
-                    .append("\"" + entry.venue + "\";").append(entry.year + ";").append(entry.getCitations() + ";")
-                    .append("\"" + entry.tags + "\"" + System.getProperty("line.separator"));
+        List<BibtexEntry> rows = new ArrayList<>(entries.values());
+        List<String> columns = BibtexViewer.CSV_COLUMNS;
+        String separator = BibtexViewer.CSV_SEPARATOR;
+        writeToFile(new File(BibtexViewer.OUTPUT_DIR, "literature.csv"), StandardCharsets.UTF_8, out -> {
+            if (BibtexViewer.CSV_HEADER) {
+                StringBuilder header = new StringBuilder();
+                appendRow(header, columns, separator);
+                out.write(header.toString());
+            }
+            writeRows(out, rows, columns, separator);
+        });
+    }
+
+    /**
+     * Formats the rows chunk by chunk on all processors and writes the chunks
+     * in order as soon as they are done. At most two chunks per thread are
+     * held in memory at any time.
+     */
+    private static void writeRows(Writer out, List<BibtexEntry> rows, List<String> columns, String separator)
+            throws IOException {
+        if (rows.size() <= CHUNK_SIZE) {
+            out.write(formatChunk(rows, columns, separator));
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<String>> pending = new ArrayDeque<>();
+            for (int start = 0; start < rows.size(); start += CHUNK_SIZE) {
+                List<BibtexEntry> chunk = rows.subList(start, Math.min(rows.size(), start + CHUNK_SIZE));
+                pending.add(executor.submit(() -> formatChunk(chunk, columns, separator)));
+                if (pending.size() > 2 * threads) {
+                    out.write(next(pending));
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.write(next(pending));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String next(Deque<Future<String>> pending) throws IOException {
+        try {
+            return pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while formatting CSV rows");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static String formatChunk(List<BibtexEntry> chunk, List<String> columns, String separator) {
+        StringBuilder csv = new StringBuilder();
+        List<String> values = new ArrayList<>(columns.size());
+        for (BibtexEntry entry : chunk) {
+            values.clear();
+            for (String column : columns) {
+                values.add(getValue(entry, column));
+            }
+            appendRow(csv, values, separator);
+        }
+        return csv.toString();
+    }
+
+    private static void appendRow(StringBuilder csv, List<String> values, String separator) {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                csv.append(separator);
+            }
+            appendField(csv, values.get(i), separator);
+        }
+        csv.append(LINE_BREAK);
+    }
+
+    /**
+     * Appends a field, enclosed in double quotes if it contains the separator,
+     * a double quote or a line break. Double quotes within the field are
+     * doubled.
+     */
+    private static void appendField(StringBuilder csv, String value, String separator) {
+        if (!value.contains(separator) && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+            csv.append(value);
+            return;
         }
-        writeToFile(BibtexViewer.OUTPUT_DIR,"literature.csv",CSV.toString());
+        csv.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                csv.append('"');
+            }
+            csv.append(c);
+        }
+        csv.append('"');
+    }
+
+    private static String getValue(BibtexEntry entry, String column) {
+        switch (column) {
+            case "key":
+                return entry.key;
+            case "type":
+                return entry.type;
+            case "author":
+                List<String> authors = new ArrayList<>();
+                for (String author : entry.authorList) {
+                    authors.add(BibtexEntry.toPlainText(author.trim()));
+                }
+                return String.join(" and ", authors);
+            case "title":
+                return plainText(entry.title);
+            case "venue":
+                return plainText(entry.venue);
+            case "year":
+                return entry.year > 0 ? Integer.toString(entry.year) : "";
+            case "citations":
+                return Integer.toString(entry.getCitations());
+            case "citationsPerYear":
+                return entry.getCitationsPerYear();
+            case "doi":
+                return plainText(entry.doi);
+            case "url":
+                return BibtexEntry.isDefined(entry.url) ? entry.url : "";
+            case "tags":
+                List<String> tags = new ArrayList<>();
+                for (List<String> tagList : entry.tagList.values()) {
+                    for (String tag : tagList) {
+                        tags.add(BibtexEntry.toPlainText(tag.trim()));
+                    }
+                }
+                return String.join(", ", tags);
+            default:
+                if (entry.tagList.containsKey(column) || BibtexViewer.TAGS.contains(column)) {
+                    List<String> fieldTags = new ArrayList<>();
+                    for (String tag : entry.tagList.getOrDefault(column, new ArrayList<>())) {
+                        fieldTags.add(BibtexEntry.toPlainText(tag.trim()));
+                    }
+                    return String.join(", ", fieldTags);
+                }
+                return entry.entry != null ? entry.getAttribute(column) : "";
+        }
+    }
+
+    private static String plainText(String text) {
+        return BibtexEntry.isDefined(text) ? BibtexEntry.toPlainText(text.trim()) : "";
     }
-    
 }
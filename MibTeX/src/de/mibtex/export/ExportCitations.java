@@ -6,19 +6,17 @@
  */
 package de.mibtex.export;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import de.mibtex.BibtexEntry;
 import de.mibtex.BibtexViewer;
 import de.mibtex.citationservice.CitationEntry;
+import de.mibtex.citationservice.CitationStore;
 
 /**
  * A class that generates a .csv file with all BibTeX entries for the citation
@@ -34,54 +32,36 @@ public class ExportCitations extends Export {
 
 	@Override
 	public void writeDocument() {
-		List<CitationEntry> newCitations = new ArrayList<CitationEntry>();
-		List<CitationEntry> citations = readCitationFile(new File(BibtexViewer.CITATION_DIR, "citations.csv"));
-		for (BibtexEntry entry : entries.values()) {
-			CitationEntry newEntry = new CitationEntry(entry.key, encodeTitle(entry.title));
-			if (citations.contains(newEntry)) {
-				newCitations.add(citations.get(citations.indexOf(newEntry)));
-			} else {
-				newCitations.add(newEntry);
-			}
-		}
-		writeCitationFile(new File(BibtexViewer.CITATION_DIR, "citations.csv"), newCitations);
-	}
-
-	protected List<CitationEntry> readCitationFile(File file) {
-		System.out.print("Reading " + file.getName() + "... ");
-		if (!file.exists()) {
-			try {
-				file.createNewFile();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		List<CitationEntry> entries = new ArrayList<CitationEntry>();
-		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-			for (String line; (line = br.readLine()) != null;) {
-				entries.add(CitationEntry.getFromCSV(line));
-			}
+		File file = new File(BibtexViewer.CITATION_DIR, "citations.csv");
+		System.out.print("Updating " + file.getName() + "... ");
+		try {
+			// locked against a running citation service from reading to writing
+			CitationStore.rewrite(file, this::merge);
 		} catch (IOException e) {
 			System.out.println("IOException for " + file.getAbsolutePath());
 		}
 		System.out.println("done.");
-		return entries;
 	}
 
-	protected void writeCitationFile(File file, List<CitationEntry> entries) {
-		System.out.print("Updating " + file.getName() + "... ");
-		try {
-			BufferedWriter out = new BufferedWriter(new FileWriter(file));
-			for (CitationEntry entry : entries) {
-				out.append(entry.getCSVString());
-			}
-			out.close();
-		} catch (FileNotFoundException e) {
-			System.out.println("Not found " + file.getAbsolutePath());
-		} catch (IOException e) {
-			System.out.println("IOException for " + file.getAbsolutePath());
+	/**
+	 * Creates an entry for each BibTeX entry, which keeps the citations of the
+	 * existing entry with the same key and title. The existing entries are
+	 * put into a hash map first, so that each BibTeX entry is looked up in
+	 * constant time.
+	 */
+	protected List<CitationEntry> merge(List<CitationEntry> citations) {
+		Map<CitationEntry, CitationEntry> existing = new HashMap<>(citations.size() * 4 / 3 + 1);
+		for (CitationEntry citation : citations) {
+			existing.put(citation, citation);
 		}
-		System.out.println("done.");
+		List<CitationEntry> newCitations = new ArrayList<CitationEntry>(entries.size());
+		for (BibtexEntry entry : entries.values()) {
+			CitationEntry newEntry = new CitationEntry(entry.key, encodeTitle(entry.title));
+			newEntry = existing.getOrDefault(newEntry, newEntry);
+			newEntry.setDoi(BibtexEntry.isDefined(entry.doi) ? entry.doi : null);
+			newCitations.add(newEntry);
+		}
+		return newCitations;
 	}
 
 	public static String encodeTitle(String s) {
@@ -0,0 +1,239 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.export;
+
+import static de.mibtex.export.ColumnarFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import de.mibtex.BibtexEntry;
+import de.mibtex.BibtexViewer;
+
+/**
+ * A class that generates a columnar binary file (literature.mibcol) with all
+ * BibTeX entries, which can be memory-mapped and read column by column with
+ * {@link ColumnarReader}.
+ *
+ * All numbers are little-endian 32-bit integers unless stated otherwise. The
+ * file starts with a header of 24 bytes: the magic bytes "MIBCOL", 0, 1, the
+ * format version, the number of rows and the number of columns, and 4 unused
+ * bytes. The header is followed by a directory with, for each column, its type,
+ * the length of its name, the name in UTF-8 padded with zeros to a multiple of
+ * 8 bytes, and the offset and length of the column in the file as 64-bit
+ * integers. Each column starts at an offset that is a multiple of 8.
+ *
+ * The layout of a column depends on its type:
+ * <ul>
+ * <li>INT: one value per row.</li>
+ * <li>STRING: row count + 1 offsets followed by the UTF-8 bytes of all values;
+ * the value of row i consists of the bytes from offset i to offset i + 1.</li>
+ * <li>DICTIONARY: the number of distinct values, one code per row, and the
+ * distinct values as a STRING block.</li>
+ * <li>MULTI_DICTIONARY: the number of distinct values, row count + 1 offsets
+ * into the codes, the codes of all rows, and the distinct values as a STRING
+ * block; the codes of row i are those from offset i to offset i + 1.</li>
+ * </ul>
+ *
+ * The file has the columns key and title (STRING), authors (MULTI_DICTIONARY),
+ * venue (DICTIONARY), year and citations (INT), and one MULTI_DICTIONARY column
+ * named tags.&lt;field&gt; per tag field. Texts are plain text. A year of 0
+ * means that the year is unknown, negative citations are the status codes of
+ * {@link de.mibtex.citationservice.CitationEntry}.
+ */
+public class ExportColumnar extends Export {
+
+    public ExportColumnar(String path, String file) throws Exception {
+        super(path, file);
+    }
+
+    @Override
+    public void writeDocument() {
+        List<BibtexEntry> rows = new ArrayList<>(entries.values());
+        List<Column> columns = new ArrayList<>();
+        columns.add(stringColumn("key", rows, entry -> entry.key));
+        columns.add(stringColumn("title", rows, entry -> plainText(entry.title)));
+        columns.add(multiDictionaryColumn("authors", rows, entry -> plainText(entry.authorList)));
+        columns.add(dictionaryColumn("venue", rows, entry -> plainText(entry.venue)));
+        columns.add(intColumn("year", rows, entry -> entry.year));
+        columns.add(intColumn("citations", rows, BibtexEntry::getCitations));
+        Set<String> tagFields = new LinkedHashSet<>();
+        for (BibtexEntry entry : rows) {
+            tagFields.addAll(entry.tagList.keySet());
+        }
+        for (String field : tagFields) {
+            columns.add(multiDictionaryColumn("tags." + field, rows,
+                    entry -> plainText(entry.tagList.getOrDefault(field, Collections.emptyList()))));
+        }
+
+        File path = new File(BibtexViewer.OUTPUT_DIR, "literature.mibcol");
+        File temporary = new File(path.getPath() + ".tmp");
+        try {
+            path.getAbsoluteFile().getParentFile().mkdirs();
+            try (FileChannel out = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                write(out, rows.size(), columns);
+            }
+            replaceIfChanged(path, temporary);
+        } catch (IOException e) {
+            System.out.println("IOException for " + path);
+            temporary.delete();
+        }
+    }
+
+    private static void write(FileChannel out, int rowCount, List<Column> columns) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        int directorySize = 0;
+        for (Column column : columns) {
+            byte[] name = column.name.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            directorySize += 8 + (int) align(name.length) + 16;
+        }
+        ByteBuffer header = allocate(HEADER_SIZE + directorySize);
+        header.put(MAGIC).putInt(VERSION).putInt(rowCount).putInt(columns.size()).putInt(0);
+        long offset = align(HEADER_SIZE + directorySize);
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            byte[] name = names.get(i);
+            header.putInt(column.type).putInt(name.length).put(name);
+            header.position(header.position() + (int) align(name.length) - name.length);
+            header.putLong(offset).putLong(column.data.limit());
+            offset = align(offset + column.data.limit());
+        }
+        header.flip();
+        out.write(header);
+        for (Column column : columns) {
+            out.write(ByteBuffer.allocate((int) (align(out.position()) - out.position())));
+            column.data.rewind();
+            out.write(column.data);
+        }
+    }
+
+    private static Column intColumn(String name, List<BibtexEntry> rows, ToIntFunction<BibtexEntry> value) {
+        ByteBuffer data = allocate(4 * rows.size());
+        for (BibtexEntry entry : rows) {
+            data.putInt(value.applyAsInt(entry));
+        }
+        return new Column(name, INT, data);
+    }
+
+    private static Column stringColumn(String name, List<BibtexEntry> rows, Function<BibtexEntry, String> value) {
+        List<String> values = new ArrayList<>();
+        for (BibtexEntry entry : rows) {
+            values.add(value.apply(entry));
+        }
+        return new Column(name, STRING, encodeStrings(values));
+    }
+
+    private static Column dictionaryColumn(String name, List<BibtexEntry> rows, Function<BibtexEntry, String> value) {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        int[] codes = new int[rows.size()];
+        for (int row = 0; row < codes.length; row++) {
+            codes[row] = dictionary.computeIfAbsent(value.apply(rows.get(row)), v -> dictionary.size());
+        }
+        ByteBuffer values = encodeStrings(new ArrayList<>(dictionary.keySet()));
+        ByteBuffer data = allocate(4 + 4 * codes.length + values.limit());
+        data.putInt(dictionary.size());
+        data.asIntBuffer().put(codes);
+        data.position(data.position() + 4 * codes.length);
+        data.put(values);
+        return new Column(name, DICTIONARY, data);
+    }
+
+    private static Column multiDictionaryColumn(String name, List<BibtexEntry> rows,
+            Function<BibtexEntry, List<String>> value) {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        int[] offsets = new int[rows.size() + 1];
+        List<Integer> codes = new ArrayList<>();
+        for (int row = 0; row < rows.size(); row++) {
+            for (String v : value.apply(rows.get(row))) {
+                codes.add(dictionary.computeIfAbsent(v, key -> dictionary.size()));
+            }
+            offsets[row + 1] = codes.size();
+        }
+        ByteBuffer values = encodeStrings(new ArrayList<>(dictionary.keySet()));
+        ByteBuffer data = allocate(4 + 4 * offsets.length + 4 * codes.size() + values.limit());
+        data.putInt(dictionary.size());
+        for (int offset : offsets) {
+            data.putInt(offset);
+        }
+        for (int code : codes) {
+            data.putInt(code);
+        }
+        data.put(values);
+        return new Column(name, MULTI_DICTIONARY, data);
+    }
+
+    private static ByteBuffer encodeStrings(List<String> values) {
+        List<byte[]> encoded = new ArrayList<>();
+        int size = 0;
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            size += bytes.length;
+        }
+        ByteBuffer data = allocate(4 * (values.size() + 1) + size);
+        int offset = 0;
+        data.putInt(offset);
+        for (byte[] bytes : encoded) {
+            offset += bytes.length;
+            data.putInt(offset);
+        }
+        for (byte[] bytes : encoded) {
+            data.put(bytes);
+        }
+        data.flip();
+        return data;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String plainText(String text) {
+        return BibtexEntry.isDefined(text) ? BibtexEntry.toPlainText(text.trim()) : "";
+    }
+
+    private static List<String> plainText(List<String> texts) {
+        List<String> plain = new ArrayList<>();
+        for (String text : texts) {
+            plain.add(BibtexEntry.toPlainText(text.trim()));
+        }
+        return plain;
+    }
+
+    private static class Column {
+
+        final String name;
+
+        final int type;
+
+        final ByteBuffer data;
+
+        Column(String name, int type, ByteBuffer data) {
+            this.name = name;
+            this.type = type;
+            this.data = data;
+            data.position(0);
+            data.limit(data.capacity());
+        }
+    }
+}
@@ -6,7 +6,11 @@
  */
 package de.mibtex.export;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.List;
+import java.util.Map;
 
 import de.mibtex.BibtexEntry;
 import de.mibtex.BibtexFilter;
@@ -19,6 +23,20 @@ import de.mibtex.BibtexViewer;
  */
 public class ExportHTML extends Export {
 
+	private static final Template PAGE = Template.parse("<html><head>"
+			+ "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=ISO-8859-1\">"
+			+ "<style type=\"text/css\">body {font-family:Verdana; color:red;} a {text-decoration:none; color:black;} table {border-collapse:collapse;} td,th {border:thin solid lightgray; padding:3px; text-align:center;}</style>"
+			+ "<title>INSERT_TITLE</title>"
+			+ "</head><body>\r\n"
+			+ "INSERT_BODY"
+			+ "</body></html>\r\n",
+			"INSERT_TITLE", "INSERT_BODY");
+
+	/**
+	 * Receives all pages instead of the output directory if a bundle format is configured.
+	 */
+	private SiteBundle bundle;
+
 	public ExportHTML(String path, String file) throws Exception {
 		super(path, file);
 	}
@@ -26,18 +44,63 @@ public class ExportHTML extends Export {
 	@Override
 	public void writeDocument() {
 		try {
+			bundle = SiteBundle.open(BibtexViewer.BUNDLE_FORMAT, getBundleBasename());
 			writeIndex();
 			writeAuthors();
 			writeYears();
 			writeVenues();
 			writeTags();
 			writeLists();
+			closeBundle();
 		} catch (Exception e) {
 			System.out.println(e.getMessage());
+			discardBundle();
+		}
+	}
+
+	/**
+	 * The archive is placed next to the output directory and named after it,
+	 * e.g., Library.zip for the output directory Library/.
+	 */
+	private static String getBundleBasename() {
+		File outputDir = new File(BibtexViewer.OUTPUT_DIR);
+		if (outputDir.getName().isEmpty()) {
+			return "literature";
 		}
+		return outputDir.getPath();
 	}
 
-	void writeIndex() {
+	private void closeBundle() throws IOException {
+		if (bundle != null) {
+			bundle.close();
+			bundle = null;
+		}
+	}
+
+	private void discardBundle() {
+		if (bundle != null) {
+			bundle.discard();
+			bundle = null;
+		}
+	}
+
+	/**
+	 * Writes a page consisting of the common header and footer around the given body.
+	 */
+	void writePage(String filename, String title, CharSequence body) throws IOException {
+		Map<String, Template.Slot> slots = Map.of(
+				"INSERT_TITLE", Template.text(title),
+				"INSERT_BODY", Template.text(body));
+		if (bundle == null) {
+			writeToFile(new File(BibtexViewer.OUTPUT_DIR + filename), out -> PAGE.render(out, slots));
+		} else {
+			StringWriter page = new StringWriter();
+			PAGE.render(page, slots);
+			bundle.add(filename, page.toString());
+		}
+	}
+
+	void writeIndex() throws IOException {
 		writeToHTML("index.htm", new BibtexFilter() {
 			@Override
 			public String getTitle() {
@@ -51,7 +114,7 @@ public class ExportHTML extends Export {
 		});
 	}
 
-	void writeAuthors() {
+	void writeAuthors() throws IOException {
 		for (final String author : authors) {
 			writeToHTML(BibtexEntry.toURL(author) + ".htm", new BibtexFilter() {
 				@Override
@@ -67,7 +130,7 @@ public class ExportHTML extends Export {
 		}
 	}
 
-	void writeYears() {
+	void writeYears() throws IOException {
 		for (final int year : years) {
 			writeToHTML(year + ".htm", new BibtexFilter() {
 				@Override
@@ -83,7 +146,7 @@ public class ExportHTML extends Export {
 		}
 	}
 
-	void writeVenues() {
+	void writeVenues() throws IOException {
 		for (final String venue : venues) {
 			writeToHTML(venue + ".htm", new BibtexFilter() {
 				@Override
@@ -99,7 +162,7 @@ public class ExportHTML extends Export {
 		}
 	}
 
-	void writeTags() {
+	void writeTags() throws IOException {
 		for (final String tag : tags) {
 			writeToHTML(BibtexEntry.toURL(tag) + ".htm", new BibtexFilter() {
 				@Override
@@ -115,7 +178,7 @@ public class ExportHTML extends Export {
 		}
 	}
 
-	void writeLists() {
+	void writeLists() throws IOException {
 		writeList("Authors", authors);
 		writeList("Titles", titles);
 		writeList("Venues", venues);
@@ -123,10 +186,9 @@ public class ExportHTML extends Export {
 		writeList("Years", years);
 	}
 
-	void writeList(String title, List<?> list) {
+	void writeList(String title, List<?> list) throws IOException {
 		String filename = BibtexEntry.toURL(title) + ".htm";
 		StringBuilder content = new StringBuilder();
-		writeHeader(content, title);
 		content.append("<center><h1>" + title
 				+ " <a href=\"index.htm\">(X)</a>");
 		content.append("</h1></center>\r\n");
@@ -136,30 +198,13 @@ public class ExportHTML extends Export {
 			content.append(BibtexEntry.toURL(o.toString()));
 			content.append(".htm\">" + o + "</a><br/>\r\n");
 		}
-		writeFooter(content);
-		writeToFile(BibtexViewer.OUTPUT_DIR, filename, content.toString());
+		writePage(filename, title, content);
 	}
 
-	void writeToHTML(String filename, BibtexFilter filter) {
+	void writeToHTML(String filename, BibtexFilter filter) throws IOException {
 		StringBuilder content = new StringBuilder();
-		writeHeader(content, "Literature");
 		writeBibtex(content, filter);
-		writeFooter(content);
-		writeToFile(BibtexViewer.OUTPUT_DIR, filename, content.toString());
-	}
-
-	private void writeHeader(StringBuilder builder, String title) {
-		builder.append("<html><head>");
-		builder.append("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=ISO-8859-1\">");
-		builder.append("<style type=\"text/css\">body {font-family:Verdana; color:red;} a {text-decoration:none; color:black;} table {border-collapse:collapse;} td,th {border:thin solid lightgray; padding:3px; text-align:center;}</style>");
-		builder.append("<title>");
-		builder.append(title);
-		builder.append("</title>");
-		builder.append("</head><body>\r\n");
-	}
-
-	private void writeFooter(StringBuilder builder) {
-		builder.append("</body></html>\r\n");
+		writePage(filename, "Literature", content);
 	}
 
 	void writeBibtex(StringBuilder builder, BibtexFilter filter) {
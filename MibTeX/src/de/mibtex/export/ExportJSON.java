@@ -6,15 +6,30 @@
  */
 package de.mibtex.export;
 
-import java.util.Collection;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 
 import de.mibtex.BibtexEntry;
 import de.mibtex.BibtexViewer;
 
 
 /**
- * A class that generates a .json file with all BibTeX entries
+ * A class that generates a .json file with all BibTeX entries. The file is an
+ * array with one object per entry in the order of the BibTeX file, which is
+ * streamed to disk as UTF-8 while the entries are visited.
+ * 
+ * Each object has the members key, authors (array), title, venue, year,
+ * citations, trend, doi, url and tags (an object mapping each tag field to an
+ * array of its tags). The trend has the members months, gained (the citations
+ * gained within these months), growth (gained relative to the citations at
+ * their start) and partial (true if the history of the entry starts later);
+ * it is taken from the history of the citation service. Texts are plain text
+ * without HTML entities. Year, citations, trend, doi and url are null if
+ * unknown.
  * 
  * @author Christopher Sontag
  */
@@ -26,49 +41,67 @@ public class ExportJSON extends Export{
 
     @Override
     public void writeDocument() {
-        StringBuilder JSON = new StringBuilder();
-        JSON.append("["+System.getProperty("line.separator"));
-        for (BibtexEntry entry : entries.values()) {
-            JSON.append("{")
-            .append(getJSONAttribute("key",entry.key)+",")
-            .append(getJSONAttribute("authors",entry.authorList)+",")
-            .append(getJSONAttribute("title", entry.title)+",")
-            .append(getJSONAttribute("venues", entry.venue)+",")
-            .append(getJSONAttribute("year", entry.year)+",")
-            .append(getJSONAttribute("citations", entry.getCitations())+",")
-            .append(getJSONAttributeFromList("tags", entry.tagList.values()))
-            .append("},"+System.getProperty("line.separator"));
-        }
-        JSON.append("]");
-        writeToFile(BibtexViewer.OUTPUT_DIR,"literature.json",JSON.toString());
+        writeToFile(new File(BibtexViewer.OUTPUT_DIR, "literature.json"), StandardCharsets.UTF_8, this::writeEntries);
     }
 
-    private String getJSONAttribute(String key, int str) {
-        return "\""+key+"\":[{\"name\":\""+str+"\"}]";
+    private void writeEntries(Writer out) throws IOException {
+        JSONWriter json = new JSONWriter(out);
+        json.beginArray();
+        for (BibtexEntry entry : entries.values()) {
+            writeEntry(json, entry);
+        }
+        json.endArray();
+        out.write(System.lineSeparator());
     }
 
-    private String getJSONAttribute(String key, String str) {
-        return "\""+key+"\":[{\"name\":\""+BibtexEntry.toURL(str)+"\"}]";
-    }
-    
-    private String getJSONAttribute(String key, List<String> list) {
-        String str = "[";
-        for (int i = 0; i < list.size(); i++) {
-            str += "{\"name\":\""+BibtexEntry.toURL(list.get(i))+"\"}";
-            if (i < (list.size()-1)) {
-                str += ",";
+    protected static void writeEntry(JSONWriter json, BibtexEntry entry) throws IOException {
+        json.beginObject();
+        json.name("key").value(entry.key);
+        json.name("authors").beginArray();
+        for (String author : entry.authorList) {
+            json.value(BibtexEntry.toPlainText(author.trim()));
+        }
+        json.endArray();
+        json.name("title").value(plainTextOrNull(entry.title));
+        json.name("venue").value(plainTextOrNull(entry.venue));
+        json.name("year");
+        if (entry.year > 0) {
+            json.value(entry.year);
+        } else {
+            json.nullValue();
+        }
+        json.name("citations");
+        if (entry.getCitations() >= 0) {
+            json.value(entry.getCitations());
+        } else {
+            json.nullValue();
+        }
+        json.name("trend");
+        if (entry.citationTrend != null) {
+            json.beginObject();
+            json.name("months").value(BibtexViewer.CITATION_TREND_MONTHS);
+            json.name("gained").value(entry.citationTrend.gained);
+            json.name("growth").value(entry.citationTrend.growth);
+            json.name("partial").value(entry.citationTrend.partial);
+            json.endObject();
+        } else {
+            json.nullValue();
+        }
+        json.name("doi").value(plainTextOrNull(entry.doi));
+        json.name("url").value(BibtexEntry.isDefined(entry.url) ? entry.url : null);
+        json.name("tags").beginObject();
+        for (Map.Entry<String, List<String>> tags : entry.tagList.entrySet()) {
+            json.name(tags.getKey()).beginArray();
+            for (String tag : tags.getValue()) {
+                json.value(BibtexEntry.toPlainText(tag.trim()));
             }
+            json.endArray();
         }
-        str += "]";
-        return "\""+key+"\":"+str;
+        json.endObject();
+        json.endObject();
     }
 
-    private String getJSONAttributeFromList(String key, Collection<List<String>> collection) {
-        String str = "[";
-        for (List l : collection) {
-            str += getJSONAttribute(key, l);
-        }
-        str += "]";
-        return "\""+key+"\":"+str;
+    private static String plainTextOrNull(String text) {
+        return BibtexEntry.isDefined(text) ? BibtexEntry.toPlainText(text.trim()) : null;
     }
 }
@@ -0,0 +1,163 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ * 
+ * Distributed under BSD 3-Clause License, available at Github
+ * 
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.export;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.mibtex.BibtexEntry;
+import de.mibtex.BibtexViewer;
+
+/**
+ * A class that generates a JSON Lines file (.jsonl) with one object per BibTeX
+ * entry and line, in the order of the BibTeX file. The objects have the same
+ * members as those of {@link ExportJSON}.
+ * 
+ * With the option jsonl-changed-only, only the entries that were added,
+ * changed or removed since the previous run are written to
+ * literature-changes.jsonl, each line being an object with the members op
+ * ("add", "change" or "remove"), key and, except for removals, entry. Changes
+ * are detected by comparing a hash of each entry with the hashes stored in
+ * literature-jsonl.state by the previous run.
+ */
+public class ExportJSONL extends ExportJSON {
+
+    private static final String STATE_FILE = "literature-jsonl.state";
+
+    public ExportJSONL(String path, String file) throws Exception {
+        super(path, file);
+    }
+
+    @Override
+    public void writeDocument() {
+        if (BibtexViewer.JSONL_CHANGED_ONLY) {
+            writeChanges();
+            return;
+        }
+        writeToFile(new File(BibtexViewer.OUTPUT_DIR, "literature.jsonl"), StandardCharsets.UTF_8, out -> {
+            for (BibtexEntry entry : entries.values()) {
+                out.write(toLine(entry));
+                out.write('\n');
+            }
+        });
+    }
+
+    private void writeChanges() {
+        File stateFile = new File(BibtexViewer.OUTPUT_DIR, STATE_FILE);
+        Map<String, String> previous = readState(stateFile);
+        Map<String, String> current = new LinkedHashMap<>();
+        List<String> changes = new ArrayList<>();
+        for (BibtexEntry entry : entries.values()) {
+            String line = toLine(entry);
+            String hash = hash(line);
+            current.put(entry.key, hash);
+            String previousHash = previous.get(entry.key);
+            if (!hash.equals(previousHash)) {
+                changes.add(toChange(previousHash == null ? "add" : "change", entry.key, line));
+            }
+        }
+        for (String key : previous.keySet()) {
+            if (!current.containsKey(key)) {
+                changes.add(toChange("remove", key, null));
+            }
+        }
+        System.out.println(changes.size() + " of " + entries.size() + " entries changed since the last export");
+        boolean written = writeToFile(new File(BibtexViewer.OUTPUT_DIR, "literature-changes.jsonl"),
+                StandardCharsets.UTF_8, out -> {
+                    for (String change : changes) {
+                        out.write(change);
+                        out.write('\n');
+                    }
+                });
+        if (!written) {
+            // keeps the old state, so the next run reports these changes again
+            System.out.println("Keeping " + stateFile + " as the changes could not be written");
+            return;
+        }
+        // the state is only replaced after the changes were written
+        writeToFile(stateFile, StandardCharsets.UTF_8, out -> {
+            for (Map.Entry<String, String> entry : current.entrySet()) {
+                out.write(entry.getValue() + "\t" + entry.getKey() + "\n");
+            }
+        });
+    }
+
+    /**
+     * Reads the hashes of the previous run, one per line followed by a tab and
+     * the key of the entry.
+     */
+    private static Map<String, String> readState(File file) {
+        Map<String, String> state = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return state;
+        }
+        try (BufferedReader in = readFromFile(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    state.put(line.substring(tab + 1), line.substring(0, tab));
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("IOException for " + file);
+        }
+        return state;
+    }
+
+    private static String toLine(BibtexEntry entry) {
+        StringWriter line = new StringWriter();
+        try {
+            writeEntry(new JSONWriter(line), entry);
+        } catch (IOException e) {
+            // not thrown by a StringWriter
+            throw new IllegalStateException(e);
+        }
+        return line.toString();
+    }
+
+    private static String toChange(String op, String key, String entry) {
+        StringWriter line = new StringWriter();
+        try {
+            JSONWriter json = new JSONWriter(line);
+            json.beginObject();
+            json.name("op").value(op);
+            json.name("key").value(key);
+            if (entry != null) {
+                json.name("entry").jsonValue(entry);
+            }
+            json.endObject();
+        } catch (IOException e) {
+            // not thrown by a StringWriter
+            throw new IllegalStateException(e);
+        }
+        return line.toString();
+    }
+
+    private static String hash(String line) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(line.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -7,22 +7,49 @@
 package de.mibtex.export;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
 
 import de.mibtex.BibtexEntry;
 import de.mibtex.BibtexViewer;
+import de.mibtex.export.html.SearchIndex;
 import de.mibtex.export.typo3.Typo3Entry;
 
 /**
- * A class that generates a single .html file with all BibTeX entries
+ * A class that generates a single .html file with all BibTeX entries. The
+ * entries are embedded as a JSON data block from which the page renders only
+ * the rows currently visible, together with a search index for them.
+ *
+ * With the option html-shards, the entries are instead written to one script
+ * file per year in the folder data/, which the page loads newest first, so
+ * that it becomes usable before the whole library is downloaded.
+ *
+ * The sort order of each column is computed here as well, so the page sorts
+ * by picking the matching entries from a permutation instead of comparing
+ * strings.
  *
  * @author Christopher Sontag
  */
 public class ExportNewHTML extends Export {
+    private static final String SHARD_DIR = "data";
+
+    private static final String ORDER_FILE = "order.js";
+
     private Map<String, String> bibTagsVariables;
     
     public ExportNewHTML(String path, String file) throws Exception {
@@ -35,9 +62,18 @@ public class ExportNewHTML extends Export {
                 BibtexViewer.BIBTEX_DIR,
                 ExportTypo3Bibtex.VariablesFile
         ));
-        
-        String input = readFromFile("resources/", new File("index_in.html"));
-        StringBuilder HTML = new StringBuilder();
+
+        final Template template;
+        try {
+            template = Template.fromFile(new File("resources/", "index_in.html"),
+                    "DATA_INSERT_HERE", "INSERT_BIB_PATH",
+                    "INSERT_VENUE_OPTIONS", "INSERT_TAG_OPTIONS", "INSERT_YEAR_OPTIONS");
+        } catch (IOException e) {
+            System.out.println("IOException for resources/index_in.html");
+            return;
+        }
+
+        List<BibtexEntry> selected = new ArrayList<>();
         Set<String> venues = new HashSet<>();
         Set<String> tags = new HashSet<>();
         Set<Integer> years = new HashSet<>();
@@ -50,129 +86,329 @@ public class ExportNewHTML extends Export {
         	}
     		if (!containsFilterTag)
     			continue;
-    		
-            HTML.append("<tr id=\"").append(entry.key).append("\">")
-                    .append("<td>").append(generateAuthorLinks(entry)).append("</td>")
-                    .append("<td>").append(generateTitleLink(entry)).append("</td>")
-                    .append("<td>").append(generateVenueLink(entry)).append("</td>")
-                    .append("<td>").append(generateTagLinks(entry)).append("</td>")
-                    .append("<td>").append(generateCitationLink(entry)).append("</td>")
-                    .append("<td>").append(generateYearLink(entry)).append("</td>")
-                    .append("</tr>");
+
+            selected.add(entry);
             venues.add(entry.venue);
             years.add(entry.year);
             tags.addAll(generateTagList(entry));
         }
-        input = input.replace("DATA_INSERT_HERE", HTML.toString());
-        input = input.replace("INSERT_BIB_PATH", BibtexViewer.BIBTEX_DIR
-                + "literature.bib");
-        input = insertOptionsStr(input, "INSERT_VENUE_OPTIONS", venues);
-        input = insertOptionsStr(input, "INSERT_TAG_OPTIONS", tags);
-        input = insertOptionsInt(input, "INSERT_YEAR_OPTIONS", years);
 
-        writeToFile(BibtexViewer.OUTPUT_DIR, "index.html", input);
+        List<Shard> shards = createShards(selected);
+        int[][] orders = computeSortOrders(shards);
+        String orderSrc = null;
+        if (BibtexViewer.HTML_SHARDS) {
+            orderSrc = writeShardFiles(shards, orders);
+        }
+        String order = orderSrc;
+
+        Map<String, Template.Slot> slots = new HashMap<>();
+        slots.put("DATA_INSERT_HERE", out -> writeManifest(out, shards, selected.size(), orders, order));
+        slots.put("INSERT_BIB_PATH", Template.text(BibtexViewer.BIBTEX_DIR + "literature.bib"));
+        slots.put("INSERT_VENUE_OPTIONS", out -> writeOptions(out, venues));
+        slots.put("INSERT_TAG_OPTIONS", out -> writeOptions(out, tags));
+        slots.put("INSERT_YEAR_OPTIONS", out -> writeOptions(out, years));
+        writeToFile(new File(BibtexViewer.OUTPUT_DIR + "index.html"), out -> template.render(out, slots));
     }
 
-    private String insertOptionsStr(String input, String replace,
-                                    Set<String> set) {
-        StringBuilder HTML = new StringBuilder();
-        for (String el : set) {
-            HTML.append("<option value=\"").append(el).append("\">");
+    /**
+     * Splits the entries into one shard per year, newest first, or puts all
+     * entries into a single shard if sharding is disabled. Ids are assigned
+     * consecutively in the order of the shards, but each shard is written with
+     * ids starting at 0, so that its file only changes with its own entries.
+     */
+    private static List<Shard> createShards(List<BibtexEntry> selected) {
+        List<Shard> shards;
+        if (BibtexViewer.HTML_SHARDS) {
+            Map<Integer, Shard> byYear = new TreeMap<>(Comparator.reverseOrder());
+            for (BibtexEntry entry : selected) {
+                int year = Math.max(entry.year, 0);
+                byYear.computeIfAbsent(year, y -> new Shard(y > 0 ? Integer.toString(y) : "unknown"))
+                        .entries.add(entry);
+            }
+            shards = new ArrayList<>(byYear.values());
+        } else {
+            Shard shard = new Shard("all");
+            shard.entries.addAll(selected);
+            shards = Collections.singletonList(shard);
         }
-        return input.replace(replace, HTML.toString());
+        int first = 0;
+        for (Shard shard : shards) {
+            shard.first = first;
+            first += shard.entries.size();
+        }
+        return shards;
     }
 
-    private String insertOptionsInt(String input, String replace,
-                                    Set<Integer> set) {
-        StringBuilder HTML = new StringBuilder();
-        for (int el : set) {
-            HTML.append("<option value=\"").append(el).append("\">");
+    /**
+     * Computes for each column of the table the ids of all entries in
+     * ascending order of that column, with ties in the order of their ids.
+     * Texts are compared by their collation keys, citations and years
+     * numerically.
+     */
+    private static int[][] computeSortOrders(List<Shard> shards) {
+        List<BibtexEntry> entries = new ArrayList<>();
+        for (Shard shard : shards) {
+            entries.addAll(shard.entries);
+        }
+        int n = entries.size();
+        Collator collator = Collator.getInstance(Locale.ROOT);
+        CollationKey[][] texts = new CollationKey[4][n];
+        int[][] numbers = new int[2][n];
+        for (int id = 0; id < n; id++) {
+            BibtexEntry entry = entries.get(id);
+            texts[0][id] = collator.getCollationKey(String.join(", ", generateAuthorList(entry)));
+            texts[1][id] = collator.getCollationKey(generateTitle(entry));
+            texts[2][id] = collator.getCollationKey(BibtexEntry.toPlainText(entry.venue.trim()));
+            List<String> tags = new ArrayList<>();
+            tags.add(entry.key);
+            tags.addAll(generateTagLabels(entry));
+            texts[3][id] = collator.getCollationKey(String.join(", ", tags));
+            numbers[0][id] = entry.getCitationsPerYearValue();
+            numbers[1][id] = entry.year;
+        }
+        int[][] orders = new int[6][];
+        for (int column = 0; column < 4; column++) {
+            CollationKey[] keys = texts[column];
+            orders[column] = sortIds(n, (a, b) -> keys[a].compareTo(keys[b]));
+        }
+        for (int column = 0; column < 2; column++) {
+            int[] values = numbers[column];
+            orders[4 + column] = sortIds(n, (a, b) -> Integer.compare(values[a], values[b]));
         }
-        return input.replace(replace, HTML.toString());
+        return orders;
     }
 
-    private static String generateTitleLink(BibtexEntry entry) {
-        return ExportHTML.getHTMLTitle(entry);
+    private static int[] sortIds(int n, Comparator<Integer> comparator) {
+        Integer[] ids = new Integer[n];
+        for (int id = 0; id < n; id++) {
+            ids[id] = id;
+        }
+        // the sort is stable, so ties keep the order of their ids
+        Arrays.sort(ids, comparator);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = ids[i];
+        }
+        return order;
     }
 
-    private String generateAuthorLinks(BibtexEntry entry) {
-    	List<String> authors;
-        if (entry.authorList.isEmpty()) {
-        	authors = new ArrayList<>(1);
-        	authors.add("unknown");
+    /**
+     * Writes each shard to a script that passes its data to the page, and the
+     * sort orders to a script of their own, as they change whenever an entry
+     * is added anywhere. Files are only replaced if their content changed and
+     * the name under which the page loads them carries a checksum of the
+     * content, so browsers fetch a file again only after it changed. Shards of
+     * years without entries are removed.
+     *
+     * @return the location of the sort orders
+     */
+    private String writeShardFiles(List<Shard> shards, int[][] orders) {
+        File dir = new File(BibtexViewer.OUTPUT_DIR + SHARD_DIR);
+        Set<String> files = new HashSet<>();
+        for (Shard shard : shards) {
+            shard.src = writeScript(dir, shard.name + ".js", "AddShard", json -> writeShard(json, shard));
+            files.add(shard.name + ".js");
+        }
+        String orderSrc = writeScript(dir, ORDER_FILE, "AddOrder", json -> writeOrders(json, orders));
+        files.add(ORDER_FILE);
+        File[] stale = dir.listFiles((d, name) -> name.endsWith(".js") && !files.contains(name));
+        if (stale != null) {
+            for (File file : stale) {
+                System.out.println("Removing " + file);
+                file.delete();
+            }
+        }
+        return orderSrc;
+    }
+
+    /**
+     * Writes a script that passes JSON data to the given function of the page.
+     *
+     * @return the location of the script relative to the page
+     */
+    private String writeScript(File dir, String file, String function, JSONContent data) {
+        StringWriter content = new StringWriter();
+        content.write(function + "(");
+        try {
+            data.write(new JSONWriter(content, true));
+        } catch (IOException e) {
+            // not thrown by a StringWriter
+            throw new IllegalStateException(e);
+        }
+        content.write(");\n");
+        writeToFile(new File(dir, file), content.toString());
+        CRC32 checksum = new CRC32();
+        checksum.update(content.toString().getBytes());
+        return SHARD_DIR + "/" + file + "?v=" + Long.toHexString(checksum.getValue());
+    }
+
+    @FunctionalInterface
+    private interface JSONContent {
+        void write(JSONWriter json) throws IOException;
+    }
+
+    /**
+     * Writes the data block of the page, which lists the shards in the order
+     * in which the page loads them, and the sort orders. Data written to files
+     * is referenced by its location, all other data is embedded.
+     */
+    private void writeManifest(Writer out, List<Shard> shards, int count, int[][] orders, String orderSrc)
+            throws IOException {
+        JSONWriter json = new JSONWriter(out, true);
+        json.beginObject();
+        json.name("count").value(count);
+        json.name("trendMonths").value(BibtexViewer.CITATION_TREND_MONTHS);
+        json.name("shards").beginArray();
+        for (Shard shard : shards) {
+            json.beginObject();
+            json.name("name").value(shard.name);
+            json.name("first").value(shard.first);
+            json.name("count").value(shard.entries.size());
+            if (shard.src != null) {
+                json.name("src").value(shard.src);
+            } else {
+                json.name("data");
+                writeShard(json, shard);
+            }
+            json.endObject();
+        }
+        json.endArray();
+        json.name("order").beginObject();
+        if (orderSrc != null) {
+            json.name("src").value(orderSrc);
         } else {
-        	authors = entry.authorList;
+            json.name("data");
+            writeOrders(json, orders);
         }
+        json.endObject();
+        json.endObject();
+    }
+
+    /**
+     * Writes the sort orders as one array of entry ids per column of the
+     * table, in the order of the column constants in the template.
+     */
+    private static void writeOrders(JSONWriter json, int[][] orders) throws IOException {
+        json.beginArray();
+        for (int[] order : orders) {
+            json.array(order);
+        }
+        json.endArray();
+    }
+
+    private void writeShard(JSONWriter json, Shard shard) throws IOException {
+        SearchIndex index = new SearchIndex();
+        json.beginObject();
+        json.name("name").value(shard.name);
+        json.name("entries").beginArray();
+        int id = 0;
+        for (BibtexEntry entry : shard.entries) {
+            writeEntry(json, entry);
+            addToIndex(index, id++, entry);
+        }
+        json.endArray();
+        json.name("index");
+        index.write(json);
+        json.endObject();
+    }
+
+    private static void writeOptions(Writer out, Set<?> set) throws IOException {
+        for (Object el : set) {
+            out.append("<option value=\"").append(el.toString()).append("\">");
+        }
+    }
+
+    /**
+     * Writes an entry as one row of the data block that is rendered by the
+     * script in index_in.html. The row is an array whose positions are
+     * mirrored by the column constants in the template, so both have to be
+     * changed together. All strings are plain text; the page escapes them when
+     * rendering.
+     */
+    private void writeEntry(JSONWriter json, BibtexEntry entry) throws IOException {
+        json.beginArray();
+        json.value(entry.key);
+        json.array(generateAuthorList(entry));
+        json.value(generateTitle(entry));
+        json.value(entry.getRelativePDFPath());
+        json.value(entry.getPDFPath().exists() ? 1 : 0);
+        json.value(entry.getCommentsPath().exists() ? entry.getRelativeCommentsPath() : "");
+        json.value(entry.doi);
+        json.value(entry.url);
+        json.value(generatePreprintURL(entry));
+        json.value(BibtexEntry.toPlainText(entry.venue.trim()));
+        json.array(generateTagLabels(entry));
+        json.value(entry.getCitationsPerYearValue());
+        json.value(entry.getCitationsPerYear());
+        json.value(entry.year);
+        if (entry.citationTrend != null) {
+            json.value(entry.citationTrend.gained);
+        } else {
+            json.nullValue();
+        }
+        json.endArray();
+    }
 
-        StringBuilder HTML = new StringBuilder();
-        for (String author : authors) {
-            HTML.append("<a href=\"\" onclick=\"setTag('searchAuthor','").append(author.trim())
-                .append("');event.preventDefault();Filter();\">").append(author).append("</a>, ");
+    private static void addToIndex(SearchIndex index, int id, BibtexEntry entry) {
+        index.add(id, SearchIndex.AUTHOR, generateAuthorList(entry));
+        index.add(id, SearchIndex.TITLE, BibtexEntry.toPlainText(entry.title));
+        index.add(id, SearchIndex.VENUE, BibtexEntry.toPlainText(entry.venue));
+        index.add(id, SearchIndex.TAG, entry.key);
+        index.add(id, SearchIndex.TAG, generateTagLabels(entry));
+        // also index the tags without prefix, so that they can be found by their name alone
+        for (List<String> tags : entry.tagList.values()) {
+            for (String tag : tags) {
+                index.add(id, SearchIndex.TAG, BibtexEntry.toPlainText(tag));
+            }
         }
-        HTML.deleteCharAt(HTML.length() - 1);
-        HTML.deleteCharAt(HTML.length() - 2);
-        return HTML.toString();
+        index.addNumber(id, SearchIndex.CITATIONS, entry.getCitationsPerYearValue());
+        index.addNumber(id, SearchIndex.YEAR, entry.year);
     }
 
-    private String generateVenueLink(BibtexEntry entry) {
-        return "<a href=\"\" onclick=\"setTag('searchVenue','" + entry.venue.trim()
-                + "');event.preventDefault();Filter();\">" + entry.venue
-                + "</a>";
+    private static String generateTitle(BibtexEntry entry) {
+        return BibtexEntry.toPlainText(BibtexEntry.isDefined(entry.title) ? entry.title : "unspecified");
     }
 
-    private String generateTagLinks(BibtexEntry entry) {
+    private static List<String> generateAuthorList(BibtexEntry entry) {
+        List<String> authors = new ArrayList<>();
+        if (entry.authorList.isEmpty()) {
+            authors.add("unknown");
+        }
+        for (String author : entry.authorList) {
+            authors.add(BibtexEntry.toPlainText(author.trim()));
+        }
+        return authors;
+    }
+
+    /**
+     * Returns the Typo3 URL for preprints, or an empty string if there is none
+     * or if it equals the URL of the entry.
+     */
+    private String generatePreprintURL(BibtexEntry entry) {
         final Typo3Entry entryAsT3 = ExportTypo3Bibtex.applyModifiers(
                 new Typo3Entry(entry, bibTagsVariables)
         );
-
-        StringBuilder html = new StringBuilder();
-		if (entry.getCommentsPath().exists()) {
-			html.append(" <a href=\"");
-			html.append(entry.getRelativeCommentsPath());
-			html.append("\">");
-			html.append(entry.key);
-			html.append("</a>, ");
-		}
-		else {
-			html.append(entry.key).append(", ");
-		}
-        // DOI
-		if (!entry.doi.isEmpty()) {
-			html.append("<a href=\"https://dx.doi.org/");
-			html.append(entry.doi);
-			html.append("\">doi</a>, ");
-		}
-        // URL
         final boolean hasURL = !entry.url.isEmpty();
-		if (hasURL) {
-			html.append("<a href=\"");
-			html.append(entry.url);
-			html.append("\">url</a>, ");
-		}
-        // Typo3 URL for preprints
         final boolean hasT3URL = !entryAsT3.url.isBlank();
         if (hasT3URL && !(hasURL && entry.url.equals(entryAsT3.url))) {
-            html.append("<a href=\"");
-            html.append(entryAsT3.url);
-            html.append("\">preprint</a>, ");
+            return entryAsT3.url;
         }
-        // other tags
+        return "";
+    }
+
+    private static List<String> generateTagLabels(BibtexEntry entry) {
+        List<String> labels = new ArrayList<>();
         for (int i = 0; i < BibtexViewer.TAGS.size(); i++) {
-        	String tag = BibtexViewer.TAGS.get(i);
-        	List<String> tags = entry.tagList.get(tag);
-        	if (tags != null) {
+            String tag = BibtexViewer.TAGS.get(i);
+            List<String> tags = entry.tagList.get(tag);
+            if (tags != null) {
                 String prefix = tag.replace("-tags", ":").replace("Tags", ":");
                 for (int j = 0; j < tags.size(); j++) {
-                    html.append("<a href=\"\" onclick=\"setTag('searchTag','");
-                    html.append(prefix).append(tags.get(j).trim());
-                    html.append("');event.preventDefault();Filter();\">");
-                    html.append(prefix).append(tags.get(j).trim());
-                    html.append("</a>, ");
+                    labels.add(BibtexEntry.toPlainText(prefix + tags.get(j).trim()));
                 }
-        	}
+            }
         }
-        html.delete(html.lastIndexOf(","), html.length());
-        return html.toString();
+        return labels;
     }
 
     private List<String> generateTagList(BibtexEntry entry) {
@@ -190,14 +426,27 @@ public class ExportNewHTML extends Export {
         return tags;
     }
 
-    private String generateCitationLink(BibtexEntry entry) {
-        return "<a href=\"https://scholar.google.de/scholar?q=" + entry.title
-                + "\" target=\"_blank\">" + entry.getCitationsPerYear() + "</a>";
-    }
+    /**
+     * A part of the entries that the page loads at once. Within the shard, its
+     * entries have the ids 0 .. entries.size() - 1; the page adds first, which
+     * is only written to the manifest.
+     */
+    private static class Shard {
+
+        final String name;
+
+        final List<BibtexEntry> entries = new ArrayList<>();
 
-    private String generateYearLink(BibtexEntry entry) {
-        return "<a href=\"\" onclick=\"setTag('searchYear', '" + entry.year
-                + "');event.preventDefault();Filter();\">" + entry.year
-                + "</a>";
+        int first;
+
+        /**
+         * The location of the shard relative to the page, or null if it is
+         * embedded in the page.
+         */
+        String src;
+
+        Shard(String name) {
+            this.name = name;
+        }
     }
 }
@@ -0,0 +1,220 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.export;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Writes JSON directly to a character stream. Separators between values are
+ * inserted automatically, so callers only open and close arrays and objects
+ * and emit names and values in order.
+ */
+public class JSONWriter implements Closeable, Flushable {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+
+    private final boolean htmlSafe;
+
+    /**
+     * For each open array or object, whether it already contains an element.
+     */
+    private boolean[] nonEmpty = new boolean[16];
+
+    private int depth = 0;
+
+    private boolean afterName = false;
+
+    public JSONWriter(Writer out) {
+        this(out, false);
+    }
+
+    /**
+     * @param htmlSafe if true, characters that could end a surrounding HTML
+     *            script element and all non-ASCII characters are escaped as
+     *            well, so the output can be embedded in a page regardless of
+     *            its encoding
+     */
+    public JSONWriter(Writer out, boolean htmlSafe) {
+        this.out = out;
+        this.htmlSafe = htmlSafe;
+    }
+
+    public JSONWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JSONWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JSONWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JSONWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JSONWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JSONWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    public JSONWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JSONWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        separate();
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    public JSONWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JSONWriter nullValue() throws IOException {
+        separate();
+        out.write("null");
+        return this;
+    }
+
+    /**
+     * Writes a value that is already serialized as JSON.
+     */
+    public JSONWriter jsonValue(String json) throws IOException {
+        separate();
+        out.write(json);
+        return this;
+    }
+
+    public JSONWriter array(Collection<String> values) throws IOException {
+        beginArray();
+        for (String value : values) {
+            value(value);
+        }
+        return endArray();
+    }
+
+    public JSONWriter array(int[] values) throws IOException {
+        return array(values, values.length);
+    }
+
+    /**
+     * Writes the first length elements of the given array.
+     */
+    public JSONWriter array(int[] values, int length) throws IOException {
+        beginArray();
+        for (int i = 0; i < length; i++) {
+            value(values[i]);
+        }
+        return endArray();
+    }
+
+    private JSONWriter open(char bracket) throws IOException {
+        separate();
+        out.write(bracket);
+        if (depth == nonEmpty.length) {
+            nonEmpty = Arrays.copyOf(nonEmpty, depth * 2);
+        }
+        nonEmpty[depth++] = false;
+        return this;
+    }
+
+    private JSONWriter close(char bracket) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("Nothing to close with " + bracket);
+        }
+        depth--;
+        out.write(bracket);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else if (depth > 0) {
+            if (nonEmpty[depth - 1]) {
+                out.write(',');
+            }
+            nonEmpty[depth - 1] = true;
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            String replacement = null;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029'
+                    || (htmlSafe && (c == '<' || c == '>' || c == '&' || c > 0x7E))) {
+                replacement = unicodeEscape(c);
+            }
+            if (replacement != null) {
+                out.write(s, start, i - start);
+                out.write(replacement);
+                start = i + 1;
+            }
+        }
+        out.write(s, start, length - start);
+        out.write('"');
+    }
+
+    private static String unicodeEscape(char c) {
+        return new String(new char[] { '\\', 'u', HEX[c >> 12 & 0xF], HEX[c >> 8 & 0xF], HEX[c >> 4 & 0xF],
+                HEX[c & 0xF] });
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
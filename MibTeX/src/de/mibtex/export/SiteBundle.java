@@ -0,0 +1,232 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.export;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * An archive that collects all pages of a generated site in a single file.
+ * Pages are streamed into a temporary file in the order they are added and
+ * the archive replaces the target file only when it is closed. All entries
+ * carry the same fixed timestamp, so exporting the same library twice yields
+ * identical archives.
+ */
+public abstract class SiteBundle implements Closeable {
+
+    /**
+     * Timestamp of all entries (1980-01-01 00:00), which is the earliest
+     * date representable in a ZIP file.
+     */
+    static final LocalDateTime ENTRY_TIME = LocalDateTime.of(1980, 1, 1, 0, 0);
+
+    static final long ENTRY_TIME_SECONDS = 315532800L;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+
+    private final Path temporaryFile;
+
+    private final Set<String> names = new HashSet<>();
+
+    protected final OutputStream out;
+
+    protected SiteBundle(File file) throws IOException {
+        this.file = file;
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        temporaryFile = new File(file.getPath() + ".tmp").toPath();
+        out = new BufferedOutputStream(Files.newOutputStream(temporaryFile), BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a bundle for the given format.
+     *
+     * @param format either "zip" or "tar" (case insensitive)
+     * @param basename the path of the archive without file extension
+     * @return the new bundle or null if the format is empty
+     */
+    public static SiteBundle open(String format, String basename) throws IOException {
+        if (format == null || format.isBlank()) {
+            return null;
+        }
+        switch (format.trim().toLowerCase()) {
+            case "zip":
+                return new Zip(new File(basename + ".zip"));
+            case "tar":
+                return new Tar(new File(basename + ".tar"));
+            default:
+                throw new IllegalArgumentException("Unknown bundle format \"" + format + "\" (expected zip or tar)");
+        }
+    }
+
+    /**
+     * Appends a page to the archive. Names are unique within an archive, so a
+     * page that was already added is skipped.
+     */
+    public void add(String name, String content) throws IOException {
+        if (!names.add(name)) {
+            System.out.println("Skipping duplicate page " + name + " in " + file);
+            return;
+        }
+        writeEntry(name, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected abstract void writeEntry(String name, byte[] content) throws IOException;
+
+    protected abstract void finish() throws IOException;
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+        System.out.println("Updating " + file + " (" + names.size() + " pages)");
+        Files.move(temporaryFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Abandons the archive and leaves a previously exported archive untouched.
+     */
+    public void discard() {
+        try {
+            out.close();
+            Files.deleteIfExists(temporaryFile);
+        } catch (IOException e) {
+            System.out.println("IOException for " + temporaryFile);
+        }
+    }
+
+    private static class Zip extends SiteBundle {
+
+        private final ZipOutputStream zip;
+
+        Zip(File file) throws IOException {
+            super(file);
+            zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected void writeEntry(String name, byte[] content) throws IOException {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setTimeLocal(ENTRY_TIME);
+            zip.putNextEntry(entry);
+            zip.write(content);
+            zip.closeEntry();
+        }
+
+        @Override
+        protected void finish() throws IOException {
+            zip.finish();
+        }
+    }
+
+    /**
+     * An uncompressed POSIX (ustar) archive. Names longer than the ustar
+     * header permits are stored in a preceding pax extended header.
+     */
+    private static class Tar extends SiteBundle {
+
+        private static final int BLOCK = 512;
+
+        private static final int NAME_LENGTH = 100;
+
+        Tar(File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        protected void writeEntry(String name, byte[] content) throws IOException {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes.length > NAME_LENGTH) {
+                String record = " path=" + name + "\n";
+                int length = record.getBytes(StandardCharsets.UTF_8).length;
+                // the length prefix counts its own digits
+                int total = length + Integer.toString(length).length();
+                total = length + Integer.toString(total).length();
+                byte[] pax = (total + record).getBytes(StandardCharsets.UTF_8);
+                writeHeader("PaxHeader", pax.length, (byte) 'x');
+                writeData(pax);
+                nameBytes = truncate(nameBytes);
+            }
+            writeHeader(nameBytes, content.length, (byte) '0');
+            writeData(content);
+        }
+
+        private static byte[] truncate(byte[] name) {
+            byte[] truncated = new byte[NAME_LENGTH];
+            System.arraycopy(name, 0, truncated, 0, NAME_LENGTH);
+            return truncated;
+        }
+
+        private void writeHeader(String name, long size, byte type) throws IOException {
+            writeHeader(name.getBytes(StandardCharsets.UTF_8), size, type);
+        }
+
+        private void writeHeader(byte[] name, long size, byte type) throws IOException {
+            byte[] header = new byte[BLOCK];
+            System.arraycopy(name, 0, header, 0, name.length);
+            writeOctal(header, 100, 8, 0644);
+            writeOctal(header, 108, 8, 0);
+            writeOctal(header, 116, 8, 0);
+            writeOctal(header, 124, 12, size);
+            writeOctal(header, 136, 12, ENTRY_TIME_SECONDS);
+            header[156] = type;
+            System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+            // the checksum is computed with its own field filled with spaces
+            for (int i = 148; i < 156; i++) {
+                header[i] = ' ';
+            }
+            long checksum = 0;
+            for (byte b : header) {
+                checksum += b & 0xFF;
+            }
+            writeOctal(header, 148, 7, checksum);
+            out.write(header);
+        }
+
+        private static void writeOctal(byte[] header, int offset, int length, long value) {
+            String octal = Long.toOctalString(value);
+            int digits = length - 1;
+            for (int i = 0; i < digits - octal.length(); i++) {
+                header[offset + i] = '0';
+            }
+            byte[] bytes = octal.getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(bytes, 0, header, offset + digits - bytes.length, bytes.length);
+            header[offset + digits] = 0;
+        }
+
+        private void writeData(byte[] data) throws IOException {
+            out.write(data);
+            int padding = (BLOCK - data.length % BLOCK) % BLOCK;
+            out.write(new byte[padding]);
+        }
+
+        @Override
+        protected void finish() throws IOException {
+            out.write(new byte[2 * BLOCK]);
+        }
+    }
+}
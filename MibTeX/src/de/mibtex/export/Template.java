@@ -0,0 +1,133 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A text document with named slots, such as resources/index_in.html. The
+ * document is split once into literal segments and slots; rendering writes the
+ * segments and the content of each slot in order to a writer, so no copy of
+ * the document is created per replacement.
+ *
+ * Slots are plain placeholder words (e.g., DATA_INSERT_HERE) that may occur
+ * any number of times in the document.
+ */
+public class Template {
+
+    /**
+     * Writes the content of a slot.
+     */
+    @FunctionalInterface
+    public interface Slot {
+        void write(Writer out) throws IOException;
+    }
+
+    private static final Map<String, CachedTemplate> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Literal segments; segment i is followed by slot i, the last one by nothing.
+     */
+    private final String[] segments;
+
+    private final String[] slots;
+
+    private Template(List<String> segments, List<String> slots) {
+        this.segments = segments.toArray(new String[0]);
+        this.slots = slots.toArray(new String[0]);
+    }
+
+    public static Template parse(String text, String... slotNames) {
+        List<String> segments = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int next = -1;
+            String slot = null;
+            for (String name : slotNames) {
+                int index = text.indexOf(name, position);
+                if (index >= 0 && (next < 0 || index < next)) {
+                    next = index;
+                    slot = name;
+                }
+            }
+            if (slot == null) {
+                break;
+            }
+            segments.add(text.substring(position, next));
+            slots.add(slot);
+            position = next + slot.length();
+        }
+        segments.add(text.substring(position));
+        return new Template(segments, slots);
+    }
+
+    /**
+     * Reads and parses a template file. Parsed templates are kept for the
+     * lifetime of the process and are only parsed again when the file changes.
+     */
+    public static Template fromFile(File file, String... slotNames) throws IOException {
+        String key = file.getAbsolutePath() + Arrays.toString(slotNames);
+        long lastModified = file.lastModified();
+        long length = file.length();
+        CachedTemplate cached = CACHE.get(key);
+        if (cached == null || cached.lastModified != lastModified || cached.length != length) {
+            String text = new String(Files.readAllBytes(file.toPath()));
+            cached = new CachedTemplate(parse(text, slotNames), lastModified, length);
+            CACHE.put(key, cached);
+        }
+        return cached.template;
+    }
+
+    /**
+     * A slot with a fixed text.
+     */
+    public static Slot text(CharSequence text) {
+        return out -> out.append(text);
+    }
+
+    /**
+     * Writes the template to the given writer.
+     *
+     * @param content the content for each slot of the template
+     * @throws IllegalArgumentException if no content is given for a slot
+     */
+    public void render(Writer out, Map<String, Slot> content) throws IOException {
+        for (int i = 0; i < slots.length; i++) {
+            out.write(segments[i]);
+            Slot slot = content.get(slots[i]);
+            if (slot == null) {
+                throw new IllegalArgumentException("No content for slot " + slots[i]);
+            }
+            slot.write(out);
+        }
+        out.write(segments[slots.length]);
+    }
+
+    private static class CachedTemplate {
+
+        final Template template;
+
+        final long lastModified;
+
+        final long length;
+
+        CachedTemplate(Template template, long lastModified, long length) {
+            this.template = template;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/* MibTeX - Minimalistic tool to manage your references with BibTeX
+ *
+ * Distributed under BSD 3-Clause License, available at Github
+ *
+ * https://github.com/tthuem/MibTeX
+ */
+package de.mibtex.export.html;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import de.mibtex.export.JSONWriter;
+
+/**
+ * An inverted index over the entries of the HTML_NEW page. Text fields map
+ * each token to the ids of the entries containing it, numeric fields list the
+ * entry ids sorted by value. The page answers searches by intersecting and
+ * merging these lists instead of scanning all entries.
+ *
+ * Entries have to be added in ascending order of their ids.
+ */
+public class SearchIndex {
+
+    public static final int AUTHOR = 0;
+
+    public static final int TITLE = 1;
+
+    public static final int VENUE = 2;
+
+    public static final int TAG = 3;
+
+    public static final int CITATIONS = 0;
+
+    public static final int YEAR = 1;
+
+    /**
+     * Splits texts into tokens. The page uses the same expression, so both
+     * sides have to be changed together.
+     */
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final List<Map<String, Postings>> fields = new ArrayList<>();
+
+    private final List<Postings> numbers = new ArrayList<>();
+
+    public SearchIndex() {
+        for (int field = AUTHOR; field <= TAG; field++) {
+            fields.add(new HashMap<>());
+        }
+        for (int field = CITATIONS; field <= YEAR; field++) {
+            numbers.add(new Postings());
+        }
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    public void add(int id, int field, String text) {
+        Map<String, Postings> index = fields.get(field);
+        for (String token : tokenize(text)) {
+            index.computeIfAbsent(token, t -> new Postings()).add(id);
+        }
+    }
+
+    public void add(int id, int field, List<String> texts) {
+        for (String text : texts) {
+            add(id, field, text);
+        }
+    }
+
+    public void addNumber(int id, int field, int value) {
+        numbers.get(field).add(id, value);
+    }
+
+    /**
+     * Writes the index as an object with two arrays. Each element of "fields"
+     * holds the sorted tokens of a text field and, at the same positions,
+     * their posting lists with each id stored as the difference to its
+     * predecessor. Each element of "numbers" holds the values of a numeric
+     * field in ascending order together with the corresponding entry ids.
+     */
+    public void write(JSONWriter json) throws IOException {
+        json.beginObject();
+        json.name("fields").beginArray();
+        for (Map<String, Postings> index : fields) {
+            String[] tokens = index.keySet().toArray(new String[0]);
+            Arrays.sort(tokens);
+            json.beginObject();
+            json.name("tokens").beginArray();
+            for (String token : tokens) {
+                json.value(token);
+            }
+            json.endArray();
+            json.name("postings").beginArray();
+            for (String token : tokens) {
+                json.array(index.get(token).deltas());
+            }
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+        json.name("numbers").beginArray();
+        for (Postings postings : numbers) {
+            postings.writeSortedByValue(json);
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    /**
+     * A growable list of ascending entry ids, optionally with a value per id.
+     */
+    private static class Postings {
+
+        private int[] ids = new int[4];
+
+        private int[] values = null;
+
+        private int size = 0;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        void add(int id, int value) {
+            if (values == null) {
+                values = new int[ids.length];
+            }
+            add(id);
+            if (values.length < ids.length) {
+                values = Arrays.copyOf(values, ids.length);
+            }
+            values[size - 1] = value;
+        }
+
+        int[] deltas() {
+            int[] deltas = new int[size];
+            int previous = 0;
+            for (int i = 0; i < size; i++) {
+                deltas[i] = ids[i] - previous;
+                previous = ids[i];
+            }
+            return deltas;
+        }
+
+        void writeSortedByValue(JSONWriter json) throws IOException {
+            long[] pairs = new long[size];
+            for (int i = 0; i < size; i++) {
+                // the value in the upper half keeps the sort stable by id
+                pairs[i] = ((long) values[i] << 32) | ids[i];
+            }
+            Arrays.sort(pairs);
+            int[] sortedValues = new int[size];
+            int[] sortedIds = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedValues[i] = (int) (pairs[i] >> 32);
+                sortedIds[i] = (int) pairs[i];
+            }
+            json.beginObject();
+            json.name("values").array(sortedValues);
+            json.name("ids").array(sortedIds);
+            json.endObject();
+        }
+    }
+}